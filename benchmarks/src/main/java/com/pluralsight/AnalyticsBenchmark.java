@@ -0,0 +1,83 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The Analytics screen: a year of a three-year ledger grouped by vendor, by month and by both,
+// the top 20 vendors, and the running balance. threads is how many cores the groups are summed on.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class AnalyticsBenchmark {
+
+    @Param({"10000000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int vendors;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private List<Analytics.Source> sources;
+    private int fromDay;
+    private int toDay;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path csv = Files.createTempFile("ledger-bench", ".csv");
+        try {
+            LedgerGenerator generator = new LedgerGenerator().rows(rows).vendors(vendors);
+            sources = List.of(Analytics.of(LedgerGenerator.load(generator.write(csv))));
+        } finally {
+            Files.delete(csv);
+        }
+        toDay = (int) LocalDate.of(2024, 12, 31).toEpochDay();
+        fromDay = (int) LocalDate.of(2024, 1, 1).toEpochDay();
+    }
+
+    @Benchmark
+    public List<Analytics.Group> byVendor() {
+        return Analytics.groupBy(sources, Analytics.Dimension.VENDOR, fromDay, toDay, threads);
+    }
+
+    @Benchmark
+    public List<Analytics.Group> byMonth() {
+        return Analytics.groupBy(sources, Analytics.Dimension.MONTH, fromDay, toDay, threads);
+    }
+
+    @Benchmark
+    public List<Analytics.Group> byVendorAndMonth() {
+        return Analytics.groupBy(sources, Analytics.Dimension.VENDOR_MONTH, fromDay, toDay, threads);
+    }
+
+    @Benchmark
+    public List<Analytics.Group> topVendors() {
+        return Analytics.top(byVendor(), Analytics.Measure.SPENDING, 20);
+    }
+
+    @Benchmark
+    public List<Analytics.Group> runningBalance() {
+        return Analytics.runningBalance(sources, fromDay, toDay, threads);
+    }
+}
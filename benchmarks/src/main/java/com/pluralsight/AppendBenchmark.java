@@ -0,0 +1,77 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+// Latency of adding one transaction the way the Add Deposit screen does: format the line,
+// append it to the file through the ledger writer, and add it to the store.
+// Sampled, so the output has the percentiles and not just the mean.
+// With writeAheadLog each append is logged first, as the app does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendBenchmark {
+
+    @Param({"EVERY_WRITE", "INTERVAL", "ON_EXIT"})
+    public LedgerWriter.FsyncPolicy policy;
+
+    @Param({"false", "true"})
+    public boolean writeAheadLog;
+
+    private Path file;
+    private LedgerWriter writer;
+    private WriteAheadLog log;
+    private TransactionStore store;
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        file = Files.createTempFile("ledger-bench", ".csv");
+        if (writeAheadLog) {
+            log = WriteAheadLog.open(file.resolveSibling(file.getFileName() + ".wal"), file,
+                    file.resolveSibling(file.getFileName() + ".bin"), Long.MAX_VALUE);
+        }
+        writer = new LedgerWriter(file, policy, 1000, log);
+        store = new TransactionStore();
+        transaction = Transaction.ofCents(LocalDate.of(2024, 6, 1), LocalTime.of(12, 30), "Invoice",
+                LedgerGenerator.vendorName(7), 1_250_00L);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        writer.close();
+        if (log != null) {
+            log.close();
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".wal"));
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int append() throws IOException {
+        StringBuilder line = TransactionFormat.appendLine(new StringBuilder(128), transaction);
+        writer.append(line.toString());
+        return store.add(transaction);
+    }
+}
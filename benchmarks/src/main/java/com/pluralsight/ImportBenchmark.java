@@ -0,0 +1,110 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+// Importing a batch of rows into a ledger that already has many: reading and sorting the
+// batch, writing it to the file in 1 MB appends, and adding it to the store, where the new
+// rows are merged into the date index. addOneByOne adds the same rows the way single appends
+// do, with the date index updated for every row.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ImportBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"100000"})
+    public int batchRows;
+
+    private Path directory;
+    private Path binary;
+    private Path batchFile;
+    private Path ledger;
+    private BatchImporter importer;
+    private TransactionStore store;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        directory = Files.createTempDirectory("import-bench");
+        Path csv = new LedgerGenerator().rows(rows).write(directory.resolve("transactions.csv"));
+        binary = directory.resolve("transactions.bin");
+        BinaryLedger.write(LedgerGenerator.load(csv), binary, Files.size(csv), Files.getLastModifiedTime(csv).toMillis());
+        Files.delete(csv);
+        batchFile = new LedgerGenerator().rows(batchRows).seed(7).write(directory.resolve("import.csv"));
+        ledger = directory.resolve("ledger.csv");
+    }
+
+    // A fresh copy of the big ledger, a batch already read and an empty file for every run
+    @Setup(Level.Invocation)
+    public void reset() throws IOException {
+        store = new TransactionStore();
+        store.beginLoad();
+        BinaryLedger.load(binary, store);
+        store.endLoad();
+        importer = new BatchImporter(null);
+        importer.readFile(batchFile, Runtime.getRuntime().availableProcessors());
+        FileChannel.open(ledger, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(binary);
+        Files.deleteIfExists(batchFile);
+        Files.deleteIfExists(ledger);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public BatchImporter readBatch() throws IOException {
+        BatchImporter reader = new BatchImporter(null);
+        reader.readFile(batchFile, Runtime.getRuntime().availableProcessors());
+        reader.finish();
+        return reader;
+    }
+
+    @Benchmark
+    public void writeBatch() throws IOException {
+        try (LedgerWriter writer = new LedgerWriter(ledger, LedgerWriter.FsyncPolicy.ON_EXIT, 0)) {
+            importer.writeTo(writer, null);
+        }
+    }
+
+    @Benchmark
+    public TransactionStore mergeIntoStore() {
+        importer.addTo(store);
+        return store;
+    }
+
+    @Benchmark
+    public TransactionStore addOneByOne() {
+        for (int position = 0; position < importer.size(); position++) {
+            store.add(importer.getEpochDay(position), importer.getSecondOfDay(position),
+                    importer.getAmountCents(position), importer.getDescription(position), importer.getVendor(position));
+        }
+        return store;
+    }
+}
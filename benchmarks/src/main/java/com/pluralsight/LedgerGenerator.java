@@ -0,0 +1,133 @@
+package com.pluralsight;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+// Writes a synthetic transactions file in the tracker's pipe-delimited format.
+// The same settings and seed always give the same file, so benchmark runs can be compared.
+public class LedgerGenerator {
+
+    private static final String[] DESCRIPTIONS = {
+            "Invoice", "Groceries", "Rent", "Payroll", "Fuel", "Subscription", "Refund", "Utilities"
+    };
+
+    private int rows = 100_000;
+    private int vendors = 1_000;
+    private int days = 3 * 365;
+    private LocalDate lastDay = LocalDate.of(2024, 12, 31);
+    private double depositShare = 0.3;
+    private boolean sorted;
+    private long seed = 42;
+
+    public LedgerGenerator rows(int rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    // How many different vendor names to use
+    public LedgerGenerator vendors(int vendors) {
+        this.vendors = vendors;
+        return this;
+    }
+
+    // How many days back from the last day the transactions are spread over
+    public LedgerGenerator days(int days) {
+        this.days = days;
+        return this;
+    }
+
+    public LedgerGenerator lastDay(LocalDate lastDay) {
+        this.lastDay = lastDay;
+        return this;
+    }
+
+    // Fraction of rows that are deposits; the rest are payments
+    public LedgerGenerator depositShare(double depositShare) {
+        this.depositShare = depositShare;
+        return this;
+    }
+
+    // Write the rows in date and time order instead of scattering them over the span
+    public LedgerGenerator sorted(boolean sorted) {
+        this.sorted = sorted;
+        return this;
+    }
+
+    public LedgerGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public static String vendorName(int vendor) {
+        return "Vendor " + vendor;
+    }
+
+    // Writes the header line and the rows to path, replacing anything already there
+    public Path write(Path path) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int firstDay = (int) lastDay.toEpochDay() - days + 1;
+        long span = (long) days * 86400;
+        StringBuilder line = new StringBuilder(128);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(LedgerWriter.HEADER);
+            writer.write('\n');
+            for (int i = 0; i < rows; i++) {
+                long second = sorted ? span * i / rows : random.nextLong(span);
+                long cents = 100 + random.nextLong(500_000);
+                if (random.nextDouble() >= depositShare) {
+                    cents = -cents;
+                }
+                line.setLength(0);
+                TransactionFormat.appendLine(line, firstDay + (int) (second / 86400), (int) (second % 86400), cents,
+                        DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)], vendorName(random.nextInt(vendors)));
+                writer.append(line.append('\n'));
+            }
+        }
+        return path;
+    }
+
+    // Parses a generated file into a fresh store, the same way the tracker loads its file
+    public static TransactionStore load(Path path) throws IOException {
+        TransactionStore store = new TransactionStore();
+        store.beginLoad();
+        new TransactionParser(new TransactionParser.RowHandler() {
+            @Override
+            public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                store.add(epochDay, secondOfDay, amountCents, description, vendor);
+            }
+
+            @Override
+            public boolean malformed(long lineNumber, String reason) {
+                throw new IllegalStateException("Line " + lineNumber + ": " + reason);
+            }
+        }).parseFile(path, true);
+        store.endLoad();
+        return store;
+    }
+
+    // Usage: LedgerGenerator <file> [rows] [vendors] [days]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: LedgerGenerator <file> [rows] [vendors] [days]");
+            return;
+        }
+        LedgerGenerator generator = new LedgerGenerator();
+        if (args.length > 1) {
+            generator.rows(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.vendors(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.days(Integer.parseInt(args[3]));
+        }
+        Path path = generator.write(Paths.get(args[0]));
+        System.out.printf("Wrote %,d transactions to %s (%,d bytes)%n", generator.rows, path, Files.size(path));
+    }
+}
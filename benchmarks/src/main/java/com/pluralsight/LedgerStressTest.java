@@ -0,0 +1,186 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hammers a ConcurrentLedger with writer and reader threads, for a growing number of threads.
+// Every row a writer adds carries a unique number in its amount, so at the end the harness can
+// check that each row is there exactly once. Readers check every snapshot they take while the
+// writers are running: it never shrinks, its date order is sorted, and vendor lookups only
+// return rows of that vendor that the snapshot has.
+//
+// Usage: LedgerStressTest [rows per writer] [max threads]
+// e.g.   java -cp target/benchmarks.jar com.pluralsight.LedgerStressTest 200000 16
+public class LedgerStressTest {
+
+    private static final int VENDORS = 200;
+    private static final int FIRST_DAY = (int) LocalDate.of(2024, 1, 1).toEpochDay();
+
+    public static void main(String[] args) throws InterruptedException {
+        int rowsPerWriter = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %-8s %14s %14s  %s%n", "writers", "readers", "rows/sec", "reads/sec", "result");
+        boolean passed = true;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            passed &= run(threads, threads, rowsPerWriter);
+        }
+        System.out.println(passed ? "All runs passed" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int writers, int readers, int rowsPerWriter) throws InterruptedException {
+        ConcurrentLedger ledger = new ConcurrentLedger();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong problems = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] writerThreads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            writerThreads[w] = new Thread(() -> {
+                await(start);
+                SplittableRandom random = new SplittableRandom(writer);
+                for (int i = 0; i < rowsPerWriter; i++) {
+                    // Mostly moving forward in time, with a back-dated row now and then.
+                    // The writers also run at different speeds, so their rows interleave out of order.
+                    int second = i * 30 + writer;
+                    if (random.nextInt(10) == 0) {
+                        second = random.nextInt(Math.max(second, 1));
+                    }
+                    long id = (long) writer * rowsPerWriter + i + 1;
+                    String vendor = LedgerGenerator.vendorName(random.nextInt(VENDORS));
+                    ledger.append(FIRST_DAY + second / 86400, second % 86400, id, "Stress", vendor);
+                }
+            }, "writer-" + w);
+        }
+
+        Thread[] readerThreads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            readerThreads[r] = new Thread(() -> {
+                await(start);
+                SplittableRandom random = new SplittableRandom(1000 + reader);
+                int lastSize = 0;
+                while (writing.get()) {
+                    LedgerSnapshot snapshot = ledger.snapshot();
+                    if (snapshot.size() < lastSize) {
+                        problems.incrementAndGet();
+                    }
+                    lastSize = snapshot.size();
+                    if (!checkSnapshot(snapshot, random)) {
+                        problems.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+            }, "reader-" + r);
+        }
+
+        for (Thread thread : writerThreads) {
+            thread.start();
+        }
+        for (Thread thread : readerThreads) {
+            thread.start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread thread : writerThreads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        writing.set(false);
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+
+        String result = checkFinal(ledger.snapshot(), writers * rowsPerWriter);
+        if (problems.get() > 0) {
+            result = problems.get() + " bad snapshots; " + result;
+        }
+        System.out.printf("%-8d %-8d %,14.0f %,14.0f  %s%n", writers, readers,
+                writers * (double) rowsPerWriter / seconds, reads.get() / seconds, result);
+        return problems.get() == 0 && result.equals("ok");
+    }
+
+    // Spot checks one snapshot: a stretch of the date order and one vendor's rows
+    private static boolean checkSnapshot(LedgerSnapshot snapshot, SplittableRandom random) {
+        int size = snapshot.size();
+        if (size < 2) {
+            return true;
+        }
+        int from = random.nextInt(size - 1);
+        int to = Math.min(size, from + 256);
+        long previous = Long.MIN_VALUE;
+        for (int position = from; position < to; position++) {
+            int row = snapshot.getRowAt(position);
+            long key = (long) snapshot.getEpochDay(row) * 86400 + snapshot.getSecondOfDay(row);
+            if (key < previous) {
+                return false;
+            }
+            previous = key;
+        }
+
+        String vendor = LedgerGenerator.vendorName(random.nextInt(VENDORS));
+        IntList rows = snapshot.rowsFor(vendor.toUpperCase());
+        int last = -1;
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (row <= last || row >= size || !snapshot.getVendor(row).equals(vendor)) {
+                return false;
+            }
+            last = row;
+        }
+        return true;
+    }
+
+    // Every id from 1 to expected must be there exactly once, in a fully sorted date order
+    private static String checkFinal(LedgerSnapshot snapshot, int expected) {
+        if (snapshot.size() != expected) {
+            return "expected " + expected + " rows but found " + snapshot.size();
+        }
+        BitSet seen = new BitSet(expected + 1);
+        for (int row = 0; row < snapshot.size(); row++) {
+            long id = snapshot.getAmountCents(row);
+            if (id < 1 || id > expected || seen.get((int) id)) {
+                return "row " + row + " has a missing or duplicated id " + id;
+            }
+            seen.set((int) id);
+        }
+
+        BitSet ordered = new BitSet(expected);
+        long previous = Long.MIN_VALUE;
+        for (int position = 0; position < snapshot.size(); position++) {
+            int row = snapshot.getRowAt(position);
+            long key = (long) snapshot.getEpochDay(row) * 86400 + snapshot.getSecondOfDay(row);
+            if (key < previous || ordered.get(row)) {
+                return "date order is wrong at position " + position;
+            }
+            ordered.set(row);
+            previous = key;
+        }
+
+        int indexed = 0;
+        for (int vendor = 0; vendor < VENDORS; vendor++) {
+            indexed += snapshot.rowsFor(LedgerGenerator.vendorName(vendor)).size();
+        }
+        if (indexed != expected) {
+            return "vendor index has " + indexed + " rows";
+        }
+        return "ok";
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
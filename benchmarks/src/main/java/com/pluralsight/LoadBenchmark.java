@@ -0,0 +1,127 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Loading a whole ledger file: the parser on its own, the parser filling the store and its
+// indexes, the parallel loader, the binary ledger, and rebuilding the date index (the ledger sort).
+// openPartitions is a start from the month partitions that shows the last month, as Month To Date does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int vendors;
+
+    private Path directory;
+    private Path csv;
+    private Path binary;
+    private Path partitions;
+    private TransactionStore store;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        directory = Files.createTempDirectory("ledger-bench");
+        csv = new LedgerGenerator().rows(rows).vendors(vendors).write(directory.resolve("transactions.csv"));
+        store = LedgerGenerator.load(csv);
+        binary = directory.resolve("transactions.bin");
+        BinaryLedger.write(store, binary, Files.size(csv), Files.getLastModifiedTime(csv).toMillis());
+        partitions = directory.resolve("transactions.parts");
+        PartitionedLedger.write(store, partitions, Files.size(csv), Files.getLastModifiedTime(csv).toMillis());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(binary);
+        try (Stream<Path> files = Files.walk(partitions)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public long parseOnly() throws IOException {
+        CountingHandler handler = new CountingHandler();
+        new TransactionParser(handler).parseFile(csv, true);
+        return handler.cents;
+    }
+
+    @Benchmark
+    public TransactionStore parseIntoStore() throws IOException {
+        return LedgerGenerator.load(csv);
+    }
+
+    @Benchmark
+    public long parseParallel() throws IOException {
+        CountingHandler handler = new CountingHandler();
+        ParallelTransactionLoader.load(csv, true, Runtime.getRuntime().availableProcessors(), handler);
+        return handler.cents;
+    }
+
+    @Benchmark
+    public TransactionStore loadBinary() throws IOException {
+        TransactionStore loaded = new TransactionStore();
+        loaded.beginLoad();
+        BinaryLedger.load(binary, loaded);
+        loaded.endLoad();
+        return loaded;
+    }
+
+    @Benchmark
+    public TransactionStore openPartitions() throws IOException {
+        PartitionedLedger ledger = PartitionedLedger.open(partitions);
+        List<TransactionStore> months = ledger.all();
+        return months.get(months.size() - 1);
+    }
+
+    @Benchmark
+    public DateIndex sortLedger() {
+        DateIndex index = new DateIndex();
+        index.rebuild(store);
+        return index;
+    }
+
+    // Touches every row without keeping any, so only the parsing is measured
+    private static class CountingHandler implements TransactionParser.RowHandler {
+        private long cents;
+
+        @Override
+        public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+            cents += amountCents + epochDay + secondOfDay + description.length() + vendor.length();
+        }
+
+        @Override
+        public boolean malformed(long lineNumber, String reason) {
+            throw new IllegalStateException("Line " + lineNumber + ": " + reason);
+        }
+    }
+}
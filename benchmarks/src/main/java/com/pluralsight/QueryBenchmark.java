@@ -0,0 +1,121 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The report queries: the same lookups filterTransactionsByDate, filterTransactionsByVendor
+// and the vendor text search make, plus the rollup totals printed under the date reports,
+// and word searches through the text index.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int vendors;
+
+    // Length of the date range report, in days
+    @Param({"30"})
+    public int rangeDays;
+
+    private TransactionStore store;
+    private int fromDay;
+    private int toDay;
+    // November 2024 and all of 2023, as the Previous Month and Previous Year reports ask for
+    private final int monthFromDay = (int) LocalDate.of(2024, 11, 1).toEpochDay();
+    private final int monthToDay = (int) LocalDate.of(2024, 11, 30).toEpochDay();
+    private final int yearFromDay = (int) LocalDate.of(2023, 1, 1).toEpochDay();
+    private final int yearToDay = (int) LocalDate.of(2023, 12, 31).toEpochDay();
+    private String vendor;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path csv = Files.createTempFile("ledger-bench", ".csv");
+        try {
+            LedgerGenerator generator = new LedgerGenerator().rows(rows).vendors(vendors);
+            store = LedgerGenerator.load(generator.write(csv));
+        } finally {
+            Files.delete(csv);
+        }
+        toDay = (int) LocalDate.of(2024, 12, 31).toEpochDay();
+        fromDay = toDay - rangeDays + 1;
+        vendor = LedgerGenerator.vendorName(vendors / 2).toUpperCase();
+    }
+
+    @Benchmark
+    public List<Transaction> dateRange() {
+        DateIndex dateIndex = store.getDateIndex();
+        int end = dateIndex.endOf(toDay);
+        List<Transaction> found = new ArrayList<>();
+        for (int position = dateIndex.startOf(fromDay); position < end; position++) {
+            found.add(store.get(dateIndex.getRow(position)));
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<Transaction> vendorExact() {
+        return toTransactions(store.getVendorIndex().rowsFor(vendor));
+    }
+
+    @Benchmark
+    public List<Transaction> vendorContains() {
+        return toTransactions(store.getVendorIndex().rowsContaining("dor 12"));
+    }
+
+    @Benchmark
+    public IntList textTerm() {
+        return store.getTextIndex().search("groceries");
+    }
+
+    @Benchmark
+    public IntList textAndPrefix() {
+        return store.getTextIndex().search("fuel vendor 12*");
+    }
+
+    @Benchmark
+    public IntList textOrDateRange() {
+        return store.getTextIndex().search("rent OR refund", store, fromDay, toDay);
+    }
+
+    @Benchmark
+    public void rollupTotals(Blackhole blackhole) {
+        Rollups rollups = store.getRollups();
+        blackhole.consume(rollups.between(fromDay, toDay));
+        blackhole.consume(rollups.between(monthFromDay, monthToDay));
+        blackhole.consume(rollups.between(yearFromDay, yearToDay));
+    }
+
+    private List<Transaction> toTransactions(IntList rows) {
+        List<Transaction> found = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            found.add(store.get(rows.get(i)));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,89 @@
+package com.pluralsight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The full-ledger screens: every transaction newest first, and the deposits and payments views.
+// The toString variants build each line the old way and hand it to a blackhole; the printed
+// variants go through LedgerPrinter into a stream that throws the bytes away.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ViewBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private TransactionStore store;
+    private final LedgerPrinter printer = new LedgerPrinter(OutputStream.nullOutputStream());
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path csv = Files.createTempFile("ledger-bench", ".csv");
+        try {
+            store = LedgerGenerator.load(new LedgerGenerator().rows(rows).write(csv));
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Benchmark
+    public void allTransactions(Blackhole blackhole) {
+        DateIndex dateIndex = store.getDateIndex();
+        for (int position = dateIndex.size() - 1; position >= 0; position--) {
+            blackhole.consume(store.get(dateIndex.getRow(position)).toString());
+        }
+    }
+
+    @Benchmark
+    public long allTransactionsPrinted() {
+        DateIndex dateIndex = store.getDateIndex();
+        printer.begin();
+        printer.header();
+        for (int position = dateIndex.size() - 1; position >= 0; position--) {
+            printer.row(store, dateIndex.getRow(position));
+        }
+        printer.flush();
+        return printer.getPrinted();
+    }
+
+    @Benchmark
+    public void deposits(Blackhole blackhole) {
+        newestFirst(blackhole, true);
+    }
+
+    @Benchmark
+    public void payments(Blackhole blackhole) {
+        newestFirst(blackhole, false);
+    }
+
+    private void newestFirst(Blackhole blackhole, boolean deposits) {
+        DateIndex dateIndex = store.getDateIndex();
+        for (int position = dateIndex.size() - 1; position >= 0; position--) {
+            int row = dateIndex.getRow(position);
+            if ((store.getAmountCents(row) > 0) == deposits) {
+                blackhole.consume(store.get(row).toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Checks how the write-ahead log recovers from a crash: records cut short or damaged at the end of
+// the log, a CSV whose last line was only partly written, replaying the log on top of the binary
+// snapshot, and compacting the log into a snapshot that doesn't start where the log does.
+// Every check works in a temporary directory of its own and prints ok or what went wrong.
+//
+// Usage: WriteAheadLogTest
+// e.g.   java -cp target/benchmarks.jar com.pluralsight.WriteAheadLogTest
+public class WriteAheadLogTest {
+
+    private static final int FIRST_DAY = (int) LocalDate.of(2024, 1, 1).toEpochDay();
+
+    public static void main(String[] args) throws IOException {
+        boolean passed = true;
+        passed &= report("torn record", tornRecord());
+        passed &= report("damaged record", damagedRecord());
+        passed &= report("partial line", partialLine());
+        passed &= report("replay", replay());
+        passed &= report("compact old snapshot", compact(true));
+        passed &= report("compact no snapshot", compact(false));
+        passed &= report("compact newer snapshot", compactNewerSnapshot());
+        System.out.println(passed ? "All checks passed" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // The last record is cut off half way, as by a crash in the middle of writing it
+    private static String tornRecord() throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 0);
+            ledger.write(0, 10, true);
+            ledger.log.close();
+            long size = Files.size(ledger.wal);
+            try (FileChannel channel = FileChannel.open(ledger.wal, StandardOpenOption.WRITE)) {
+                channel.truncate(size - 3);
+            }
+            try (WriteAheadLog log = ledger.open(Long.MAX_VALUE)) {
+                if (log.getRecords() != 9) {
+                    return "expected 9 records but found " + log.getRecords();
+                }
+                if (log.getDroppedBytes() != WriteAheadLog.encode(bytes(line(9)), bytes(line(9)).length).length - 3) {
+                    return "dropped " + log.getDroppedBytes() + " bytes";
+                }
+            }
+            return "ok";
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // A byte of a record in the middle is changed, so it and everything after it are dropped
+    private static String damagedRecord() throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 0);
+            ledger.write(0, 10, true);
+            ledger.log.close();
+            long position = 16;
+            for (int i = 0; i < 4; i++) {
+                position += 8 + bytes(line(i)).length;
+            }
+            try (FileChannel channel = FileChannel.open(ledger.wal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer one = ByteBuffer.allocate(1);
+                channel.read(one, position + 8);
+                one.put(0, (byte) (one.get(0) ^ 1));
+                one.rewind();
+                channel.write(one, position + 8);
+            }
+            try (WriteAheadLog log = ledger.open(Long.MAX_VALUE)) {
+                if (log.getRecords() != 4) {
+                    return "expected 4 records but found " + log.getRecords();
+                }
+                if (Files.size(ledger.wal) != position) {
+                    return "the log was not cut off after the last good record";
+                }
+            }
+            return "ok";
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // Lines 0-4 are in the CSV before the log starts. Of the logged lines 5-7, line 5 made it
+    // into the CSV, line 6 only half way and line 7 not at all.
+    private static String partialLine() throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 5);
+            ledger.write(5, 6, true);
+            ledger.write(6, 8, false);
+            String half = line(6).substring(0, line(6).length() / 2);
+            Files.write(ledger.csv, bytes(half), StandardOpenOption.APPEND);
+            ledger.log.close();
+            try (WriteAheadLog log = ledger.open(Long.MAX_VALUE)) {
+                int repaired = log.repairCsv();
+                if (repaired != 2) {
+                    return "expected 2 lines appended but got " + repaired;
+                }
+            }
+            return sameLines(ledger.csv, 8);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // The snapshot was saved after line 4 and the log started after line 2, so replaying picks
+    // up at the third record; a CSV of any other size is parsed instead
+    private static String replay() throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 2);
+            ledger.write(2, 5, true);
+            ledger.snapshot(5);
+            ledger.write(5, 8, true);
+            ledger.log.close();
+            try (WriteAheadLog log = ledger.open(Long.MAX_VALUE)) {
+                long csvSize = Files.size(ledger.csv);
+                int start = log.replayStart(BinaryLedger.sourceSizeOf(ledger.binary), csvSize);
+                if (start != 3) {
+                    return "expected replay from record 3 but got " + start;
+                }
+                if (log.replayStart(BinaryLedger.sourceSizeOf(ledger.binary), csvSize + 1) != -1) {
+                    return "replayed onto a CSV that doesn't match the log";
+                }
+                TransactionStore store = new TransactionStore();
+                BinaryLedger.load(ledger.binary, store);
+                log.replay(start, handler(store));
+                return sameRows(store, 8);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // The snapshot is older than the log, or there is none, as after a run that saved month
+    // partitions instead. Compaction makes a fresh one from the CSV and the log.
+    private static String compact(boolean oldSnapshot) throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 5);
+            if (oldSnapshot) {
+                ledger.snapshot(2);
+            }
+            ledger.log.close();
+            ledger.log = ledger.open(256);
+            ledger.write(5, 20, true);
+            return compacted(ledger, 20);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // The snapshot was saved after the log started, so it already holds the first records
+    private static String compactNewerSnapshot() throws IOException {
+        Path directory = Files.createTempDirectory("wal-test");
+        try {
+            Ledger ledger = new Ledger(directory, 1);
+            ledger.write(1, 4, true);
+            ledger.snapshot(4);
+            ledger.log.close();
+            ledger.log = ledger.open(256);
+            ledger.write(4, 20, true);
+            return compacted(ledger, 20);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // The log has been folded into the snapshot at least once, and on the next start the
+    // snapshot plus the rest of the log hold lines 0 to lines - 1 and nothing else
+    private static String compacted(Ledger ledger, int lines) throws IOException {
+        ledger.log.awaitCompaction();
+        long compactions = ledger.log.getCompactions();
+        ledger.log.close();
+        if (compactions == 0) {
+            return "the log was never compacted";
+        }
+        try (WriteAheadLog log = ledger.open(Long.MAX_VALUE)) {
+            int start = log.replayStart(BinaryLedger.sourceSizeOf(ledger.binary), Files.size(ledger.csv));
+            if (start < 0) {
+                return "the snapshot doesn't line up with the log";
+            }
+            TransactionStore store = new TransactionStore();
+            BinaryLedger.load(ledger.binary, store);
+            log.replay(start, handler(store));
+            return sameRows(store, lines);
+        }
+    }
+
+    // A CSV with a header and lines of the test, and its log
+    private static class Ledger {
+        final Path csv;
+        final Path wal;
+        final Path binary;
+        WriteAheadLog log;
+
+        // The CSV starts with lines 0 to unlogged - 1, and the log starts after them
+        Ledger(Path directory, int unlogged) throws IOException {
+            csv = directory.resolve("transactions.csv");
+            wal = directory.resolve("transactions.wal");
+            binary = directory.resolve("transactions.bin");
+            StringBuilder text = new StringBuilder(LedgerWriter.HEADER).append('\n');
+            for (int i = 0; i < unlogged; i++) {
+                text.append(line(i)).append('\n');
+            }
+            Files.write(csv, bytes(text.toString()));
+            log = open(Long.MAX_VALUE);
+            log.reset(Files.size(csv));
+        }
+
+        WriteAheadLog open(long compactBytes) throws IOException {
+            return WriteAheadLog.open(wal, csv, binary, compactBytes);
+        }
+
+        // Logs lines from to to - 1, and writes them to the CSV too if toCsv
+        void write(int from, int to, boolean toCsv) throws IOException {
+            for (int i = from; i < to; i++) {
+                byte[] line = bytes(line(i));
+                byte[] record = WriteAheadLog.encode(line, line.length);
+                log.append(record, record.length, 1, line.length + 1);
+                if (toCsv) {
+                    Files.write(csv, bytes(line(i) + "\n"), StandardOpenOption.APPEND);
+                }
+            }
+        }
+
+        // Saves the first count lines, which must all be in the CSV, as the binary snapshot
+        void snapshot(int count) throws IOException {
+            TransactionStore store = new TransactionStore();
+            long size = bytes(LedgerWriter.HEADER + "\n").length;
+            for (int i = 0; i < count; i++) {
+                add(store, i);
+                size += bytes(line(i)).length + 1;
+            }
+            BinaryLedger.write(store, binary, size, Files.getLastModifiedTime(csv).toMillis());
+        }
+    }
+
+    // Line i of the test: a row an hour after the last, with i cents
+    private static String line(int i) {
+        StringBuilder line = new StringBuilder();
+        TransactionFormat.appendLine(line, FIRST_DAY + i / 24, i % 24 * 3600, -(i + 1),
+                "Test " + i, LedgerGenerator.vendorName(i % 7));
+        return line.toString();
+    }
+
+    // Adds the rows it is handed to the store
+    private static TransactionParser.RowHandler handler(TransactionStore store) {
+        return new TransactionParser.RowHandler() {
+            @Override
+            public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                store.add(epochDay, secondOfDay, amountCents, description, vendor);
+            }
+
+            @Override
+            public boolean malformed(long lineNumber, String reason) {
+                return false;
+            }
+        };
+    }
+
+    private static void add(TransactionStore store, int i) {
+        store.add(FIRST_DAY + i / 24, i % 24 * 3600, -(i + 1), "Test " + i, LedgerGenerator.vendorName(i % 7));
+    }
+
+    // The store holds lines 0 to count - 1 in order and nothing else
+    private static String sameRows(TransactionStore store, int count) {
+        if (store.size() != count) {
+            return "expected " + count + " rows but found " + store.size();
+        }
+        for (int row = 0; row < count; row++) {
+            if (store.getAmountCents(row) != -(row + 1)) {
+                return "row " + row + " is line " + (-store.getAmountCents(row) - 1);
+            }
+        }
+        return "ok";
+    }
+
+    // The CSV is the header and lines 0 to count - 1, each ending in a newline
+    private static String sameLines(Path csv, int count) throws IOException {
+        StringBuilder expected = new StringBuilder(LedgerWriter.HEADER).append('\n');
+        for (int i = 0; i < count; i++) {
+            expected.append(line(i)).append('\n');
+        }
+        String actual = Files.readString(csv);
+        return actual.equals(expected.toString()) ? "ok" : "the CSV is\n" + actual;
+    }
+
+    private static boolean report(String check, String result) {
+        System.out.printf("%-24s %s%n", check, result);
+        return result.equals("ok");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(paths::add);
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,509 @@
+package com.pluralsight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Group-by queries over the ledger: deposit and payment totals per vendor, per month, or per
+// vendor and month, the top vendors by spending, and the running balance month by month.
+//
+// The rows of a date range are cut into chunks that are summed on a fork-join pool, each into a
+// hash table of its own keyed on the vendor id and month number, so the threads share nothing
+// and no row is turned into an object. The tables are then merged into one. A range that covers
+// a good part of the ledger is read in row order, which is the order the columns are stored in,
+// and only checked against the dates; a small one is read through the date index.
+//
+// Works on TransactionStore and LedgerSnapshot through Source, and on several sources at once
+// (one per month partition), whose groups are merged by vendor name.
+public class Analytics {
+
+    // Chunks smaller than this aren't worth a task of their own
+    private static final int MIN_CHUNK_ROWS = 1 << 16;
+    // How many chunks to make per thread, so a slow chunk doesn't hold up the others
+    private static final int CHUNKS_PER_THREAD = 4;
+    // A range with more than this share of the rows is read in row order instead of date order
+    private static final int SCAN_SHARE_DIVISOR = 4;
+    // Ranges up to this many days look the month of each day up in a table made for the query
+    private static final int MAX_MONTH_TABLE_DAYS = 1 << 16;
+
+    public static final int NO_MONTH = Integer.MIN_VALUE;
+
+    // One pool for every query, so concurrent requests share the cores instead of each starting
+    // threads of its own. Its threads are daemons and are only started when a query needs them.
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public enum Dimension {
+        VENDOR,
+        MONTH,
+        VENDOR_MONTH
+    }
+
+    // What top ranks groups by
+    public enum Measure {
+        // Money paid out, as a positive amount
+        SPENDING,
+        DEPOSITS,
+        NET,
+        COUNT
+    }
+
+    // The rows a query reads. A source is only read, and from several threads at once.
+    public interface Source {
+        int size();
+
+        // Positions are rows in date and time order, as DateIndex numbers them
+        int startOf(int epochDay);
+
+        int endOf(int epochDay);
+
+        int getRowAt(int position);
+
+        int getEpochDay(int row);
+
+        long getAmountCents(int row);
+
+        int getVendorId(int row);
+
+        String getVendorName(int vendorId);
+
+        PeriodTotals totalsBetween(int fromDay, int toDay);
+    }
+
+    // The totals of one vendor, one month or one vendor in one month
+    public static class Group {
+        private final String vendor;
+        private final int month;
+        private final PeriodTotals totals;
+        private long balanceCents;
+
+        Group(String vendor, int month, PeriodTotals totals) {
+            this.vendor = vendor;
+            this.month = month;
+            this.totals = totals;
+        }
+
+        // null unless grouped by vendor
+        public String getVendor() {
+            return vendor;
+        }
+
+        // year * 12 + month - 1, or NO_MONTH unless grouped by month
+        public int getMonth() {
+            return month;
+        }
+
+        public PeriodTotals getTotals() {
+            return totals;
+        }
+
+        // Only set by runningBalance: the net of every row up to the end of the month
+        public long getBalanceCents() {
+            return balanceCents;
+        }
+
+        // "Vendor 12", "2024-03" or "2024-03 Vendor 12"
+        public String getLabel() {
+            if (month == NO_MONTH) {
+                return vendor;
+            }
+            String name = Rollups.monthName(month);
+            return vendor == null ? name : name + " " + vendor;
+        }
+
+        long measure(Measure measure) {
+            switch (measure) {
+                case SPENDING:
+                    return -totals.getPaymentCents();
+                case DEPOSITS:
+                    return totals.getDepositCents();
+                case NET:
+                    return totals.getNetCents();
+                default:
+                    return totals.getCount();
+            }
+        }
+    }
+
+    private Analytics() {
+    }
+
+    public static Source of(TransactionStore store) {
+        return new Source() {
+            @Override
+            public int size() {
+                return store.size();
+            }
+
+            @Override
+            public int startOf(int epochDay) {
+                return store.getDateIndex().startOf(epochDay);
+            }
+
+            @Override
+            public int endOf(int epochDay) {
+                return store.getDateIndex().endOf(epochDay);
+            }
+
+            @Override
+            public int getRowAt(int position) {
+                return store.getDateIndex().getRow(position);
+            }
+
+            @Override
+            public int getEpochDay(int row) {
+                return store.getEpochDay(row);
+            }
+
+            @Override
+            public long getAmountCents(int row) {
+                return store.getAmountCents(row);
+            }
+
+            @Override
+            public int getVendorId(int row) {
+                return store.getVendorId(row);
+            }
+
+            @Override
+            public String getVendorName(int vendorId) {
+                return store.getVendors().get(vendorId);
+            }
+
+            @Override
+            public PeriodTotals totalsBetween(int fromDay, int toDay) {
+                return store.getRollups().between(fromDay, toDay);
+            }
+        };
+    }
+
+    public static Source of(LedgerSnapshot snapshot) {
+        return new Source() {
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+
+            @Override
+            public int startOf(int epochDay) {
+                return snapshot.startOf(epochDay);
+            }
+
+            @Override
+            public int endOf(int epochDay) {
+                return snapshot.endOf(epochDay);
+            }
+
+            @Override
+            public int getRowAt(int position) {
+                return snapshot.getRowAt(position);
+            }
+
+            @Override
+            public int getEpochDay(int row) {
+                return snapshot.getEpochDay(row);
+            }
+
+            @Override
+            public long getAmountCents(int row) {
+                return snapshot.getAmountCents(row);
+            }
+
+            @Override
+            public int getVendorId(int row) {
+                return snapshot.getVendorId(row);
+            }
+
+            @Override
+            public String getVendorName(int vendorId) {
+                return snapshot.getVendorName(vendorId);
+            }
+
+            @Override
+            public PeriodTotals totalsBetween(int fromDay, int toDay) {
+                return snapshot.totalsBetween(fromDay, toDay);
+            }
+        };
+    }
+
+    // The totals of every group with rows from fromDay to toDay, both included, cut into enough
+    // chunks for parallelism threads of the shared pool. Sorted by month, then by vendor name.
+    public static List<Group> groupBy(List<Source> sources, Dimension by, int fromDay, int toDay, int parallelism) {
+        List<Chunk> chunks = new ArrayList<>();
+        long rows = 0;
+        for (Source source : sources) {
+            rows += split(source, fromDay, toDay, Math.max(parallelism, 1), chunks);
+        }
+
+        int[] monthOfDay = by == Dimension.VENDOR ? null : monthTable(fromDay, toDay);
+        if (parallelism <= 1 || rows < MIN_CHUNK_ROWS || chunks.size() == 1) {
+            for (Chunk chunk : chunks) {
+                chunk.sum(by, fromDay, toDay, monthOfDay);
+            }
+        } else {
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (Chunk chunk : chunks) {
+                    tasks.add(POOL.submit(() -> chunk.sum(by, fromDay, toDay, monthOfDay)));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while grouping", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not group the transactions", e.getCause());
+            }
+        }
+        return merge(chunks, by);
+    }
+
+    // The n groups with the highest measure, highest first. Groups that have a month are ranked
+    // within their month, so vendor-and-month groups give the top n vendors of every month.
+    public static List<Group> top(List<Group> groups, Measure measure, int n) {
+        Comparator<Group> order = Comparator.comparingLong((Group group) -> group.measure(measure))
+                .thenComparing(Group::getLabel, Comparator.reverseOrder());
+        List<Group> result = new ArrayList<>();
+        int from = 0;
+        while (from < groups.size()) {
+            // groupBy sorts by month, so each month is one run
+            int month = groups.get(from).getMonth();
+            int to = from;
+            PriorityQueue<Group> best = new PriorityQueue<>(order);
+            while (to < groups.size() && groups.get(to).getMonth() == month) {
+                best.add(groups.get(to++));
+                if (best.size() > n) {
+                    best.poll();
+                }
+            }
+            Group[] ranked = best.toArray(new Group[0]);
+            Arrays.sort(ranked, order.reversed());
+            result.addAll(Arrays.asList(ranked));
+            from = to;
+        }
+        return result;
+    }
+
+    // One group per month from fromDay to toDay, oldest first, each with its totals and the
+    // balance at its end, counting every row before fromDay as well
+    public static List<Group> runningBalance(List<Source> sources, int fromDay, int toDay, int parallelism) {
+        long balance = 0;
+        for (Source source : sources) {
+            if (source.size() > 0) {
+                int firstDay = source.getEpochDay(source.getRowAt(0));
+                if (firstDay < fromDay) {
+                    balance = Money.add(balance, source.totalsBetween(firstDay, fromDay - 1).getNetCents());
+                }
+            }
+        }
+        List<Group> months = groupBy(sources, Dimension.MONTH, fromDay, toDay, parallelism);
+        for (Group month : months) {
+            balance = Money.add(balance, month.totals.getNetCents());
+            month.balanceCents = balance;
+        }
+        return months;
+    }
+
+    // The month of every day from fromDay to toDay, or null if the range is too long for a table
+    private static int[] monthTable(int fromDay, int toDay) {
+        if (fromDay > toDay || (long) toDay - fromDay >= MAX_MONTH_TABLE_DAYS) {
+            return null;
+        }
+        int[] months = new int[toDay - fromDay + 1];
+        for (int day = fromDay; day <= toDay; day++) {
+            months[day - fromDay] = Rollups.monthIndexOf(day);
+        }
+        return months;
+    }
+
+    // Adds the chunks of one source to chunks and returns how many rows they cover
+    private static long split(Source source, int fromDay, int toDay, int parallelism, List<Chunk> chunks) {
+        if (source.size() == 0 || fromDay > toDay) {
+            return 0;
+        }
+        int start = source.startOf(fromDay);
+        int end = source.endOf(toDay);
+        if (start >= end) {
+            return 0;
+        }
+        // Reading every row in storage order beats jumping around in it once the range is big enough
+        boolean inRowOrder = (long) (end - start) * SCAN_SHARE_DIVISOR > source.size();
+        int from = inRowOrder ? 0 : start;
+        int to = inRowOrder ? source.size() : end;
+        int chunkRows = Math.max(MIN_CHUNK_ROWS, (to - from) / (parallelism * CHUNKS_PER_THREAD) + 1);
+        for (int chunkStart = from; chunkStart < to; chunkStart += chunkRows) {
+            chunks.add(new Chunk(source, inRowOrder, chunkStart, Math.min(to, chunkStart + chunkRows)));
+        }
+        return to - from;
+    }
+
+    // Sums the tables of every chunk, first by vendor id within each source, then by vendor name
+    private static List<Group> merge(List<Chunk> chunks, Dimension by) {
+        Map<Source, GroupTable> perSource = new HashMap<>();
+        List<Source> order = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            GroupTable table = perSource.get(chunk.source);
+            if (table == null) {
+                perSource.put(chunk.source, chunk.table);
+                order.add(chunk.source);
+            } else {
+                table.addAll(chunk.table);
+            }
+        }
+
+        Map<String, Group> groups = new HashMap<>();
+        for (Source source : order) {
+            GroupTable table = perSource.get(source);
+            for (int slot = 0; slot < table.keys.length; slot++) {
+                long key = table.keys[slot];
+                if (key == GroupTable.EMPTY) {
+                    continue;
+                }
+                String vendor = by == Dimension.MONTH ? null : source.getVendorName((int) key);
+                int month = by == Dimension.VENDOR ? NO_MONTH : (int) (key >> 32);
+                PeriodTotals totals = new PeriodTotals(table.depositCents[slot], table.depositCounts[slot],
+                        table.paymentCents[slot], table.paymentCounts[slot]);
+                String name = month + "|" + vendor;
+                Group group = groups.get(name);
+                if (group == null) {
+                    groups.put(name, new Group(vendor, month, totals));
+                } else {
+                    group.totals.add(totals);
+                }
+            }
+        }
+
+        List<Group> sorted = new ArrayList<>(groups.values());
+        sorted.sort(Comparator.comparingInt(Group::getMonth)
+                .thenComparing(group -> group.vendor, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return sorted;
+    }
+
+    // One piece of one source: rows from to to in row order, or positions from to to in date order
+    private static class Chunk {
+        final Source source;
+        final boolean inRowOrder;
+        final int from;
+        final int to;
+        GroupTable table;
+
+        Chunk(Source source, boolean inRowOrder, int from, int to) {
+            this.source = source;
+            this.inRowOrder = inRowOrder;
+            this.from = from;
+            this.to = to;
+        }
+
+        // monthOfDay holds the month of each day from fromDay on, if the range isn't too long for it
+        void sum(Dimension by, int fromDay, int toDay, int[] monthOfDay) {
+            GroupTable sums = new GroupTable();
+            int monthDay = Integer.MIN_VALUE;
+            long month = 0;
+            for (int i = from; i < to; i++) {
+                int row = inRowOrder ? i : source.getRowAt(i);
+                int epochDay = source.getEpochDay(row);
+                if (inRowOrder && (epochDay < fromDay || epochDay > toDay)) {
+                    continue;
+                }
+                long key;
+                if (by == Dimension.VENDOR) {
+                    key = source.getVendorId(row);
+                } else {
+                    // Rows of the same day usually come together, so the month is worked out once for them
+                    if (epochDay != monthDay) {
+                        monthDay = epochDay;
+                        month = (long) (monthOfDay != null ? monthOfDay[epochDay - fromDay]
+                                : Rollups.monthIndexOf(epochDay)) << 32;
+                    }
+                    key = by == Dimension.MONTH ? month : month | source.getVendorId(row);
+                }
+                sums.add(key, source.getAmountCents(row));
+            }
+            table = sums;
+        }
+    }
+
+    // Open addressing from a long key to deposit and payment sums, kept in parallel arrays
+    private static class GroupTable {
+        static final long EMPTY = Long.MIN_VALUE;
+
+        long[] keys = newKeys(64);
+        long[] depositCents = new long[64];
+        long[] depositCounts = new long[64];
+        long[] paymentCents = new long[64];
+        long[] paymentCounts = new long[64];
+        int size;
+
+        void add(long key, long cents) {
+            int slot = slotOf(key);
+            if (cents > 0) {
+                depositCents[slot] = Money.add(depositCents[slot], cents);
+                depositCounts[slot]++;
+            } else {
+                paymentCents[slot] = Money.add(paymentCents[slot], cents);
+                paymentCounts[slot]++;
+            }
+        }
+
+        void addAll(GroupTable other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    int slot = slotOf(other.keys[i]);
+                    depositCents[slot] = Money.add(depositCents[slot], other.depositCents[i]);
+                    depositCounts[slot] += other.depositCounts[i];
+                    paymentCents[slot] = Money.add(paymentCents[slot], other.paymentCents[i]);
+                    paymentCounts[slot] += other.paymentCounts[i];
+                }
+            }
+        }
+
+        // The slot of key, claimed for it if it isn't in the table yet
+        private int slotOf(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != key) {
+                if (keys[slot] == EMPTY) {
+                    if (size * 2 >= keys.length) {
+                        grow();
+                        return slotOf(key);
+                    }
+                    keys[slot] = key;
+                    size++;
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            GroupTable bigger = new GroupTable();
+            int capacity = keys.length * 2;
+            bigger.keys = newKeys(capacity);
+            bigger.depositCents = new long[capacity];
+            bigger.depositCounts = new long[capacity];
+            bigger.paymentCents = new long[capacity];
+            bigger.paymentCounts = new long[capacity];
+            bigger.addAll(this);
+            keys = bigger.keys;
+            depositCents = bigger.depositCents;
+            depositCounts = bigger.depositCounts;
+            paymentCents = bigger.paymentCents;
+            paymentCounts = bigger.paymentCounts;
+            size = bigger.size;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
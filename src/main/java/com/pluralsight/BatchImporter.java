@@ -0,0 +1,304 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Adds many transactions at once: a file or stream of ledger lines, or rows handed over one by one.
+// The rows are first read into a batch of their own: bare columns, with the descriptions and
+// vendors kept once each in a dictionary, and none of the indexes a TransactionStore keeps.
+// A file is parsed on several threads by ParallelTransactionLoader, and bad lines go to a
+// RejectReport instead of stopping the import. The batch is then sorted once, written to the
+// ledger a chunk at a time, and merged into the store and the month partitions in date order,
+// so their indexes are brought up to date in one pass instead of once per row.
+public class BatchImporter implements TransactionParser.RowHandler {
+
+    // How much of a stream is read at a time. A line longer than this makes the buffer grow.
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+    // How many bytes of lines go to the writer at a time, so an import of any size only needs
+    // this much memory on top of its rows
+    private static final int WRITE_CHUNK_SIZE = 1 << 20;
+
+    private int[] epochDays = new int[1024];
+    private int[] secondsOfDay = new int[1024];
+    private long[] amountCents = new long[1024];
+    private int[] descriptionIds = new int[1024];
+    private int[] vendorIds = new int[1024];
+    private final StringDictionary descriptions = new StringDictionary();
+    private final StringDictionary vendors = new StringDictionary();
+    private int size;
+    // Row numbers in date and time order, made by finish
+    private int[] order;
+
+    private final RejectReport rejects;
+    private long rejected;
+    private IOException failure;
+
+    // rejects may be null, in which case bad lines are only counted
+    public BatchImporter(RejectReport rejects) {
+        this.rejects = rejects;
+    }
+
+    public void add(Transaction transaction) {
+        add((int) transaction.getDate().toEpochDay(), transaction.getTime().toSecondOfDay(),
+                transaction.getAmountCents(), transaction.getDescription(), transaction.getVendor());
+    }
+
+    public void add(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+        if (order != null) {
+            throw new IllegalStateException("The batch has already been sorted");
+        }
+        if (!TransactionFormat.isWritable(epochDay)) {
+            throw new IllegalArgumentException("The date must be from 0000-01-01 to 9999-12-31");
+        }
+        if (size == epochDays.length) {
+            int capacity = (int) Math.min((long) size * 2, Integer.MAX_VALUE - 8);
+            if (capacity == size) {
+                throw new IllegalStateException("Too many rows for one import");
+            }
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            secondsOfDay = Arrays.copyOf(secondsOfDay, capacity);
+            amountCents = Arrays.copyOf(amountCents, capacity);
+            descriptionIds = Arrays.copyOf(descriptionIds, capacity);
+            vendorIds = Arrays.copyOf(vendorIds, capacity);
+        }
+        epochDays[size] = epochDay;
+        secondsOfDay[size] = secondOfDay;
+        amountCents[size] = cents;
+        descriptionIds[size] = descriptions.intern(description);
+        vendorIds[size] = vendors.intern(vendor);
+        size++;
+    }
+
+    // Reads every line of the file on parallelism threads and returns how many rows it had.
+    // A first line that looks like a header is skipped.
+    public long readFile(Path path, int parallelism) throws IOException {
+        long rows = ParallelTransactionLoader.load(path, true, parallelism, this);
+        throwIfFailed();
+        return rows;
+    }
+
+    // Reads lines from the stream until it ends and returns how many rows it had. A first line
+    // that looks like a header is skipped. The stream is not closed.
+    public long readStream(InputStream in) throws IOException {
+        TransactionParser parser = new TransactionParser(this);
+        byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+        int length = 0;
+        boolean firstLine = true;
+        boolean endOfInput = false;
+        while (!endOfInput && !parser.isStopped()) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int read = in.read(bytes, length, bytes.length - length);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                length += read;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            int start = 0;
+            if (firstLine) {
+                // Wait for the whole first line before deciding whether it is a header
+                int newline = indexOf(bytes, (byte) '\n', length);
+                if (newline < 0 && !endOfInput) {
+                    continue;
+                }
+                int lineEnd = newline < 0 ? length : newline;
+                if (lineEnd > 0 && TransactionParser.isHeader(buffer, 0, lineEnd)) {
+                    start = newline < 0 ? length : newline + 1;
+                    parser.setLineNumber(1);
+                }
+                firstLine = false;
+            }
+            // Keep a line cut off at the end of the buffer for the next read
+            int consumed = parser.parseLines(buffer, start, length, endOfInput);
+            System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+            length -= consumed;
+        }
+        throwIfFailed();
+        return parser.getRows();
+    }
+
+    // Sorts the batch by date and time, keeping rows with the same date and time in the order
+    // they were read. Called by the methods below, after which no more rows can be added.
+    public void finish() {
+        if (order != null) {
+            return;
+        }
+        long[] keys = new long[size];
+        int[] rows = new int[size];
+        boolean sorted = true;
+        long minKey = Long.MAX_VALUE;
+        long maxKey = Long.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            long key = DateIndex.keyOf(epochDays[row], secondsOfDay[row]);
+            keys[row] = key;
+            rows[row] = row;
+            sorted &= row == 0 || keys[row - 1] <= key;
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+        }
+        if (!sorted) {
+            DateIndex.sort(keys, rows, size, minKey, maxKey, size);
+        }
+        order = rows;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    // The rows by position in date and time order; position 0 is the oldest
+    public int getEpochDay(int position) {
+        return epochDays[rowAt(position)];
+    }
+
+    public int getSecondOfDay(int position) {
+        return secondsOfDay[rowAt(position)];
+    }
+
+    public long getAmountCents(int position) {
+        return amountCents[rowAt(position)];
+    }
+
+    public String getDescription(int position) {
+        return descriptions.get(descriptionIds[rowAt(position)]);
+    }
+
+    public String getVendor(int position) {
+        return vendors.get(vendorIds[rowAt(position)]);
+    }
+
+    // Appends every row to the ledger file in date order, WRITE_CHUNK_SIZE bytes of lines at a
+    // time. A follower of the same file is told to skip the lines, since they are added to the
+    // store directly.
+    public void writeTo(LedgerWriter writer, LedgerFollower follower) throws IOException {
+        finish();
+        byte[] chunk = new byte[WRITE_CHUNK_SIZE];
+        int length = 0;
+        StringBuilder line = new StringBuilder(128);
+        for (int position = 0; position < size; position++) {
+            int row = order[position];
+            line.setLength(0);
+            TransactionFormat.appendLine(line, epochDays[row], secondsOfDay[row], amountCents[row],
+                    descriptions.get(descriptionIds[row]), vendors.get(vendorIds[row]));
+            if (follower != null) {
+                follower.expectOwnLine(line.toString());
+            }
+            byte[] bytes = encode(line);
+            int lineLength = bytes == null ? line.length() + 1 : bytes.length + 1;
+            if (length + lineLength > chunk.length) {
+                if (length > 0) {
+                    writer.appendLines(chunk, length);
+                    length = 0;
+                }
+                if (lineLength > chunk.length) {
+                    chunk = new byte[lineLength];
+                }
+            }
+            if (bytes == null) {
+                // Most lines are plain ASCII and are copied over char by char
+                for (int i = 0; i < line.length(); i++) {
+                    chunk[length++] = (byte) line.charAt(i);
+                }
+            } else {
+                System.arraycopy(bytes, 0, chunk, length, bytes.length);
+                length += bytes.length;
+            }
+            chunk[length++] = '\n';
+        }
+        if (length > 0) {
+            writer.appendLines(chunk, length);
+        }
+    }
+
+    // Adds every row to the store in date order. The store only sorts the new rows and merges
+    // them into its date index, rather than adding them one at a time.
+    public void addTo(TransactionStore store) {
+        finish();
+        store.ensureCapacity(size);
+        store.beginLoad();
+        try {
+            for (int position = 0; position < size; position++) {
+                int row = order[position];
+                store.add(epochDays[row], secondsOfDay[row], amountCents[row],
+                        descriptions.get(descriptionIds[row]), vendors.get(vendorIds[row]));
+            }
+        } finally {
+            store.endLoad();
+        }
+    }
+
+    // Adds every row to the month it belongs to
+    public void addTo(PartitionedLedger ledger) throws IOException {
+        finish();
+        ledger.addAll(this);
+    }
+
+    @Override
+    public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+        add(epochDay, secondOfDay, amountCents, description, vendor);
+    }
+
+    @Override
+    public boolean malformed(long lineNumber, String reason) {
+        return malformed(lineNumber, reason, null);
+    }
+
+    @Override
+    public boolean malformed(long lineNumber, String reason, String line) {
+        // Skip the line and keep going; only a report that can't be written stops the import
+        rejected++;
+        if (rejects == null) {
+            return true;
+        }
+        try {
+            rejects.add(lineNumber, reason, line);
+            return true;
+        } catch (IOException e) {
+            failure = e;
+            return false;
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write the rejected lines to " + rejects.getPath(), failure);
+        }
+    }
+
+    private int rowAt(int position) {
+        finish();
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Row " + position + " of " + size);
+        }
+        return order[position];
+    }
+
+    // The UTF-8 bytes of a line with characters outside ASCII, or null when it is all ASCII
+    private static byte[] encode(StringBuilder line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) >= 0x80) {
+                return line.toString().getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int end) {
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
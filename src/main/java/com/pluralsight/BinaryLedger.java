@@ -0,0 +1,263 @@
+package com.pluralsight;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A compact binary copy of the ledger that loads without any text parsing.
+//
+// Layout (all numbers big-endian):
+//   int magic, int version
+//   long size and long last-modified time of the CSV file it was made from
+//   int row count, long offset of the first record
+//   int vendor count, then each vendor as int byte length + UTF-8 bytes
+//   int description count, then each description the same way
+//   one 24-byte record per row in date and time order: int epoch day, int second of day,
+//   long cents, int vendor id, int description id
+//
+// The records are read with memory-mapped buffers straight into the store's columns.
+// The pipe-delimited CSV stays the file other programs read and write.
+public class BinaryLedger {
+
+    private static final int MAGIC = 0x46544C42;
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 24;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 8;
+
+    // Records mapped at once; a whole number of records so none is split between windows
+    private static final long RECORDS_PER_WINDOW = (1L << 30) / RECORD_SIZE;
+
+    // Writes every row of the store. sourceSize and sourceModified describe the CSV the rows
+    // came from, so isCurrent can tell later whether the CSV has changed since.
+    public static void write(TransactionStore store, Path path, long sourceSize, long sourceModified) throws IOException {
+        write(store, path, sourceSize, sourceModified, 0, store.size());
+    }
+
+    // Writes the rows from date index position from up to to, such as the rows of one month,
+    // with only the vendors and descriptions those rows use
+    public static void write(TransactionStore store, Path path, long sourceSize, long sourceModified,
+                             int from, int to) throws IOException {
+        DateIndex dateIndex = store.getDateIndex();
+        // Number the vendors and descriptions in the order the rows first use them
+        int[] vendorIds = new int[store.getVendors().size()];
+        int[] descriptionIds = new int[store.getDescriptions().size()];
+        IntList vendorsUsed = new IntList();
+        IntList descriptionsUsed = new IntList();
+        Arrays.fill(vendorIds, -1);
+        Arrays.fill(descriptionIds, -1);
+        for (int position = from; position < to; position++) {
+            int row = dateIndex.getRow(position);
+            if (vendorIds[store.getVendorId(row)] < 0) {
+                vendorIds[store.getVendorId(row)] = vendorsUsed.size();
+                vendorsUsed.add(store.getVendorId(row));
+            }
+            if (descriptionIds[store.getDescriptionId(row)] < 0) {
+                descriptionIds[store.getDescriptionId(row)] = descriptionsUsed.size();
+                descriptionsUsed.add(store.getDescriptionId(row));
+            }
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            byte[][] vendors = encode(store.getVendors(), vendorsUsed);
+            byte[][] descriptions = encode(store.getDescriptions(), descriptionsUsed);
+            out.writeInt(to - from);
+            out.writeLong(HEADER_SIZE + dictionarySize(vendors) + dictionarySize(descriptions));
+            writeDictionary(out, vendors);
+            writeDictionary(out, descriptions);
+
+            // Records go out in date and time order, so the date index of the loaded store needs no sorting
+            for (int position = from; position < to; position++) {
+                int row = dateIndex.getRow(position);
+                out.writeInt(store.getEpochDay(row));
+                out.writeInt(store.getSecondOfDay(row));
+                out.writeLong(store.getAmountCents(row));
+                out.writeInt(vendorIds[store.getVendorId(row)]);
+                out.writeInt(descriptionIds[store.getDescriptionId(row)]);
+            }
+        }
+        // Replace the old file in one step so a crash never leaves half a ledger behind
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // True if the binary file exists and was made from the CSV as it is now
+    public static boolean isCurrent(Path binary, Path csv) {
+        if (!Files.exists(binary) || !Files.exists(csv)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(binary))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            return in.readLong() == Files.size(csv)
+                    && in.readLong() == Files.getLastModifiedTime(csv).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Size of the CSV the binary file was made from, or -1 if there is no readable binary file
+    public static long sourceSizeOf(Path binary) {
+        if (!Files.exists(binary)) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(binary))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // Adds every row of the binary file to the store and returns how many there were
+    public static long load(Path path, TransactionStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The header and dictionaries are read through a stream, the records are mapped
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a binary ledger");
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException(path + " is from a different version");
+            }
+            in.readLong();
+            in.readLong();
+            int rows = in.readInt();
+            long recordsStart = in.readLong();
+            int[] vendorIds = readDictionary(in, store.getVendors());
+            int[] descriptionIds = readDictionary(in, store.getDescriptions());
+
+            if (channel.size() < recordsStart + (long) rows * RECORD_SIZE) {
+                throw new IOException(path + " is cut short");
+            }
+            store.ensureCapacity(rows);
+            for (long first = 0; first < rows; first += RECORDS_PER_WINDOW) {
+                int count = (int) Math.min(RECORDS_PER_WINDOW, rows - first);
+                ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                        recordsStart + first * RECORD_SIZE, (long) count * RECORD_SIZE);
+                for (int i = 0, offset = 0; i < count; i++, offset += RECORD_SIZE) {
+                    store.add(records.getInt(offset), records.getInt(offset + 4), records.getLong(offset + 8),
+                            descriptionIds[records.getInt(offset + 20)], vendorIds[records.getInt(offset + 16)]);
+                }
+            }
+            return rows;
+        }
+    }
+
+    // Copies the CSV into a binary ledger
+    public static long importCsv(Path csv, Path binary) throws IOException {
+        TransactionStore store = new TransactionStore();
+        long modified = Files.getLastModifiedTime(csv).toMillis();
+        long size = Files.size(csv);
+        store.beginLoad();
+        long rows = new TransactionParser(new TransactionParser.RowHandler() {
+            @Override
+            public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                store.add(epochDay, secondOfDay, amountCents, description, vendor);
+            }
+
+            @Override
+            public boolean malformed(long lineNumber, String reason) {
+                System.out.println("Skipping line " + lineNumber + ": " + reason);
+                return true;
+            }
+        }).parseFile(csv, true);
+        store.endLoad();
+        write(store, binary, size, modified);
+        return rows;
+    }
+
+    // Writes a binary ledger back out as a CSV with a header line
+    public static long exportCsv(Path binary, Path csv) throws IOException {
+        TransactionStore store = new TransactionStore();
+        store.beginLoad();
+        load(binary, store);
+        store.endLoad();
+
+        StringBuilder line = new StringBuilder(128);
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write(LedgerWriter.HEADER);
+            writer.write('\n');
+            for (int row = 0; row < store.size(); row++) {
+                line.setLength(0);
+                TransactionFormat.appendLine(line, store, row).append('\n');
+                writer.append(line);
+            }
+        }
+        return store.size();
+    }
+
+    // Usage: BinaryLedger import <csv> <bin>  or  BinaryLedger export <bin> <csv>
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: BinaryLedger import <csv> <bin>");
+            System.out.println("       BinaryLedger export <bin> <csv>");
+            return;
+        }
+        long started = System.nanoTime();
+        long rows = args[0].equals("import")
+                ? importCsv(Paths.get(args[1]), Paths.get(args[2]))
+                : exportCsv(Paths.get(args[1]), Paths.get(args[2]));
+        System.out.printf("Converted %,d transactions in %,d ms%n", rows, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static byte[][] encode(StringDictionary dictionary, IntList ids) {
+        byte[][] entries = new byte[ids.size()][];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = dictionary.get(ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        return entries;
+    }
+
+    private static long dictionarySize(byte[][] entries) {
+        long size = 4;
+        for (byte[] entry : entries) {
+            size += 4 + entry.length;
+        }
+        return size;
+    }
+
+    private static void writeDictionary(DataOutputStream out, byte[][] entries) throws IOException {
+        out.writeInt(entries.length);
+        for (byte[] entry : entries) {
+            out.writeInt(entry.length);
+            out.write(entry);
+        }
+    }
+
+    // Interns every entry into the store's dictionary and returns the store's id for each file id
+    private static int[] readDictionary(DataInputStream in, StringDictionary dictionary) throws IOException {
+        int count = in.readInt();
+        int[] ids = new int[count];
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < count; id++) {
+            int length = in.readInt();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.readFully(bytes, 0, length);
+            ids[id] = dictionary.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,331 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A ledger that many threads can add to and query at the same time.
+// Writers put their rows on a lock-free queue, and whichever writer gets the lock adds everything
+// queued so far in one batch and publishes a new LedgerSnapshot for the whole batch. Readers only
+// look at a published snapshot, so they never take the lock and never hold up a writer.
+//
+// A snapshot stays exactly as it was published because no array it can see is ever changed below
+// the length it was published with: new rows are written past the end, and anything that has to
+// move (a back-dated row in the date order, a posting list that outgrew its array) goes into a copy.
+public class ConcurrentLedger {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    // Unused slots of a posting array hold this, so every posting array is sorted from end to end
+    static final int NO_ROW = Integer.MAX_VALUE;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<PendingRow> pending = new ConcurrentLinkedQueue<>();
+    private volatile LedgerSnapshot snapshot;
+
+    // Everything below is only changed while holding writeLock
+
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private int[] secondsOfDay = new int[INITIAL_CAPACITY];
+    private long[] amountCents = new long[INITIAL_CAPACITY];
+    private int[] vendorIds = new int[INITIAL_CAPACITY];
+    private int[] descriptionIds = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final StringDictionary vendors = new StringDictionary();
+    private final StringDictionary descriptions = new StringDictionary();
+    private String[] vendorNames = new String[64];
+    private String[] descriptionNames = new String[64];
+
+    // Date and time order, keyed by epoch day * 86400 + second of day. It is a sorted base that only
+    // grows at the end, plus a small sorted delta of rows that came in older than the newest one.
+    // The delta is replaced by a copy whenever it changes, and folded into a new base once it
+    // holds more than about the square root of the base, which keeps both costs near sqrt(n) per row.
+    private long[] baseKeys = new long[INITIAL_CAPACITY];
+    private int[] baseRows = new int[INITIAL_CAPACITY];
+    private int baseSize;
+    private long[] deltaKeys = new long[0];
+    private int[] deltaRows = new int[0];
+
+    // Vendor index: rows per lower-cased vendor, like VendorIndex.
+    // keyIds can be read by any thread; a key it returns only counts if the snapshot has it.
+    private final ConcurrentHashMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private String[] keyNames = new String[64];
+    private int keyCount;
+    private int[] keyOfVendor = new int[64];
+    private int[][] postings = new int[64][];
+    private int[] postingSizes = new int[64];
+
+    public ConcurrentLedger() {
+        snapshot = publish();
+    }
+
+    // Copies every row of a store, in date and time order
+    public static ConcurrentLedger copyOf(TransactionStore store) {
+        ConcurrentLedger ledger = new ConcurrentLedger();
+        DateIndex dateIndex = store.getDateIndex();
+        ledger.writeLock.lock();
+        try {
+            for (int position = 0; position < dateIndex.size(); position++) {
+                int row = dateIndex.getRow(position);
+                ledger.addRow(store.getEpochDay(row), store.getSecondOfDay(row), store.getAmountCents(row),
+                        store.getDescription(row), store.getVendor(row));
+            }
+            ledger.indexDates(0);
+            ledger.snapshot = ledger.publish();
+        } finally {
+            ledger.writeLock.unlock();
+        }
+        return ledger;
+    }
+
+    // Adds a row and returns its row number once it is in a published snapshot
+    public int append(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+        PendingRow row = new PendingRow(epochDay, secondOfDay, cents, description, vendor);
+        pending.add(row);
+        writeLock.lock();
+        try {
+            // Another writer may already have added our row along with its own
+            if (!row.added) {
+                addPending();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return row.row;
+    }
+
+    public int append(Transaction transaction) {
+        return append((int) transaction.getDate().toEpochDay(), transaction.getTime().toSecondOfDay(),
+                transaction.getAmountCents(), transaction.getDescription(), transaction.getVendor());
+    }
+
+    // The latest published state. It never changes, however many rows are added after it.
+    public LedgerSnapshot snapshot() {
+        return snapshot;
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    // Adds every queued row as one batch and publishes them together
+    private void addPending() {
+        int first = size;
+        int queued = 0;
+        PendingRow[] batch = new PendingRow[16];
+        for (PendingRow row = pending.poll(); row != null; row = pending.poll()) {
+            row.row = addRow(row.epochDay, row.secondOfDay, row.cents, row.description, row.vendor);
+            if (queued == batch.length) {
+                batch = Arrays.copyOf(batch, queued * 2);
+            }
+            batch[queued++] = row;
+        }
+        indexDates(first);
+        snapshot = publish();
+        for (int i = 0; i < queued; i++) {
+            batch[i].added = true;
+        }
+    }
+
+    private int addRow(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+        if (size == epochDays.length) {
+            int capacity = size * 2;
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            secondsOfDay = Arrays.copyOf(secondsOfDay, capacity);
+            amountCents = Arrays.copyOf(amountCents, capacity);
+            vendorIds = Arrays.copyOf(vendorIds, capacity);
+            descriptionIds = Arrays.copyOf(descriptionIds, capacity);
+        }
+        int row = size;
+        int vendorId = internVendor(vendor);
+        epochDays[row] = epochDay;
+        secondsOfDay[row] = secondOfDay;
+        amountCents[row] = cents;
+        vendorIds[row] = vendorId;
+        descriptionIds[row] = internDescription(description);
+        size++;
+        addPosting(keyOfVendor[vendorId], row);
+        return row;
+    }
+
+    private int internVendor(String vendor) {
+        int known = vendors.size();
+        int id = vendors.intern(vendor);
+        if (id == known) {
+            // A vendor spelling we haven't seen yet
+            if (id == vendorNames.length) {
+                vendorNames = Arrays.copyOf(vendorNames, id * 2);
+                keyOfVendor = Arrays.copyOf(keyOfVendor, id * 2);
+            }
+            vendorNames[id] = vendor;
+            keyOfVendor[id] = keyFor(VendorIndex.fold(vendor));
+        }
+        return id;
+    }
+
+    private int internDescription(String description) {
+        int known = descriptions.size();
+        int id = descriptions.intern(description);
+        if (id == known) {
+            if (id == descriptionNames.length) {
+                descriptionNames = Arrays.copyOf(descriptionNames, id * 2);
+            }
+            descriptionNames[id] = description;
+        }
+        return id;
+    }
+
+    private int keyFor(String folded) {
+        Integer existing = keyIds.get(folded);
+        if (existing != null) {
+            return existing;
+        }
+        int key = keyCount;
+        if (key == keyNames.length) {
+            keyNames = Arrays.copyOf(keyNames, key * 2);
+            postings = Arrays.copyOf(postings, key * 2);
+            postingSizes = Arrays.copyOf(postingSizes, key * 2);
+        }
+        keyNames[key] = folded;
+        postings[key] = newPostings(4);
+        keyCount++;
+        keyIds.put(folded, key);
+        return key;
+    }
+
+    private void addPosting(int key, int row) {
+        int[] rows = postings[key];
+        int count = postingSizes[key];
+        if (count == rows.length) {
+            int[] grown = newPostings(count * 2);
+            System.arraycopy(rows, 0, grown, 0, count);
+            // Published snapshots may still be reading the old outer array, so swap in a copy
+            postings = postings.clone();
+            postings[key] = grown;
+            rows = grown;
+        }
+        rows[count] = row;
+        postingSizes[key] = count + 1;
+    }
+
+    private static int[] newPostings(int capacity) {
+        int[] rows = new int[capacity];
+        Arrays.fill(rows, NO_ROW);
+        return rows;
+    }
+
+    // Puts rows from first on into the date order. A row newer than everything so far goes on the
+    // end of the base; an older one goes into the delta.
+    private void indexDates(int first) {
+        long newest = Math.max(baseSize == 0 ? Long.MIN_VALUE : baseKeys[baseSize - 1],
+                deltaKeys.length == 0 ? Long.MIN_VALUE : deltaKeys[deltaKeys.length - 1]);
+        long[] olderKeys = new long[0];
+        int[] olderRows = new int[0];
+        int older = 0;
+        for (int row = first; row < size; row++) {
+            long key = keyOf(row);
+            // Equal keys keep the order they came in, and the base comes before the delta,
+            // so a row can only go on the base if it is newer than everything in the delta
+            boolean afterDelta = deltaKeys.length == 0 && older == 0 || key > newest;
+            if (afterDelta && (baseSize == 0 || key >= baseKeys[baseSize - 1])) {
+                if (baseSize == baseKeys.length) {
+                    baseKeys = Arrays.copyOf(baseKeys, baseSize * 2);
+                    baseRows = Arrays.copyOf(baseRows, baseSize * 2);
+                }
+                baseKeys[baseSize] = key;
+                baseRows[baseSize++] = row;
+            } else {
+                if (older == olderKeys.length) {
+                    olderKeys = Arrays.copyOf(olderKeys, Math.max(16, older * 2));
+                    olderRows = Arrays.copyOf(olderRows, olderKeys.length);
+                }
+                olderKeys[older] = key;
+                olderRows[older++] = row;
+            }
+            newest = Math.max(newest, key);
+        }
+        if (older == 0) {
+            return;
+        }
+
+        sort(olderKeys, olderRows, older);
+        long[] keys = new long[deltaKeys.length + older];
+        int[] rows = new int[keys.length];
+        merge(deltaKeys, deltaRows, deltaKeys.length, olderKeys, olderRows, older, keys, rows);
+        if (keys.length > Math.max(256, (int) Math.sqrt(baseSize))) {
+            // Fold the delta into a new base; published snapshots keep the old one
+            long[] mergedKeys = new long[Math.max(baseKeys.length, baseSize + keys.length)];
+            int[] mergedRows = new int[mergedKeys.length];
+            merge(baseKeys, baseRows, baseSize, keys, rows, keys.length, mergedKeys, mergedRows);
+            baseKeys = mergedKeys;
+            baseRows = mergedRows;
+            baseSize += keys.length;
+            keys = new long[0];
+            rows = new int[0];
+        }
+        deltaKeys = keys;
+        deltaRows = rows;
+    }
+
+    // Stable insertion sort; a batch holds at most one row per writing thread
+    private static void sort(long[] keys, int[] rows, int count) {
+        for (int i = 1; i < count; i++) {
+            long key = keys[i];
+            int row = rows[i];
+            int j = i - 1;
+            for (; j >= 0 && keys[j] > key; j--) {
+                keys[j + 1] = keys[j];
+                rows[j + 1] = rows[j];
+            }
+            keys[j + 1] = key;
+            rows[j + 1] = row;
+        }
+    }
+
+    // Merges two sorted runs; on equal keys the first run goes first
+    private static void merge(long[] firstKeys, int[] firstRows, int firstCount, long[] secondKeys, int[] secondRows,
+                              int secondCount, long[] keys, int[] rows) {
+        int left = 0;
+        int right = 0;
+        for (int out = 0; out < firstCount + secondCount; out++) {
+            if (right >= secondCount || (left < firstCount && firstKeys[left] <= secondKeys[right])) {
+                keys[out] = firstKeys[left];
+                rows[out] = firstRows[left++];
+            } else {
+                keys[out] = secondKeys[right];
+                rows[out] = secondRows[right++];
+            }
+        }
+    }
+
+    private long keyOf(int row) {
+        return (long) epochDays[row] * SECONDS_PER_DAY + secondsOfDay[row];
+    }
+
+    private LedgerSnapshot publish() {
+        return new LedgerSnapshot(size, epochDays, secondsOfDay, amountCents, vendorIds, descriptionIds,
+                vendorNames, descriptionNames, baseKeys, baseRows, baseSize, deltaKeys, deltaRows, keyIds, keyNames, keyCount, postings);
+    }
+
+    // A row waiting for a writer to add it. added is only read and written under writeLock.
+    private static class PendingRow {
+        private final int epochDay;
+        private final int secondOfDay;
+        private final long cents;
+        private final String description;
+        private final String vendor;
+        private int row;
+        private boolean added;
+
+        PendingRow(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+            this.epochDay = epochDay;
+            this.secondOfDay = secondOfDay;
+            this.cents = cents;
+            this.description = description;
+            this.vendor = vendor;
+        }
+    }
+}
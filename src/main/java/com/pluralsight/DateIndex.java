@@ -0,0 +1,230 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+
+// Row numbers of a TransactionStore kept sorted by date and time, so a date range is found with
+// two binary searches and the ledger can be listed in order without sorting it.
+// Rows with the same date and time stay in the order they were added.
+public class DateIndex {
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    // Sort key of each position: epoch day * 86400 + second of day
+    private long[] keys = new long[1024];
+    private int[] rows = new int[1024];
+    private int size;
+
+    // Adds a row. Rows usually arrive in order and go on the end; an older one
+    // is put in its place with a binary search.
+    public void add(int row, int epochDay, int secondOfDay) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        long key = keyOf(epochDay, secondOfDay);
+        int position = size == 0 || keys[size - 1] <= key ? size : firstAfter(key);
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(rows, position, rows, position + 1, size - position);
+        keys[position] = key;
+        rows[position] = row;
+        size++;
+    }
+
+    // Throws away the index and sorts every row of the store in one go
+    public void rebuild(TransactionStore store) {
+        int count = store.size();
+        long[] newKeys = new long[Math.max(count, 1024)];
+        int[] newRows = new int[newKeys.length];
+        boolean sorted = true;
+        long minKey = Long.MAX_VALUE;
+        long maxKey = Long.MIN_VALUE;
+        for (int row = 0; row < count; row++) {
+            long key = keyOf(store.getEpochDay(row), store.getSecondOfDay(row));
+            newKeys[row] = key;
+            newRows[row] = row;
+            sorted &= row == 0 || newKeys[row - 1] <= key;
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+        }
+
+        // A ledger written in date order needs no sorting at all
+        if (!sorted) {
+            sort(newKeys, newRows, count, minKey, maxKey, count);
+        }
+        keys = newKeys;
+        rows = newRows;
+        size = count;
+    }
+
+    // Adds every row of the store from firstRow on, such as a batch that was just imported.
+    // Only the new rows are sorted, and then merged with the ones already in order in one pass.
+    public void merge(TransactionStore store, int firstRow) {
+        int count = store.size() - firstRow;
+        if (count <= 0) {
+            return;
+        }
+        long[] newKeys = new long[count];
+        int[] newRows = new int[count];
+        boolean sorted = true;
+        long minKey = Long.MAX_VALUE;
+        long maxKey = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int row = firstRow + i;
+            long key = keyOf(store.getEpochDay(row), store.getSecondOfDay(row));
+            newKeys[i] = key;
+            newRows[i] = row;
+            sorted &= i == 0 || newKeys[i - 1] <= key;
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+        }
+        if (!sorted) {
+            sort(newKeys, newRows, count, minKey, maxKey, store.size());
+        }
+
+        long[] mergedKeys = new long[Math.max(size + count, 1024)];
+        int[] mergedRows = new int[mergedKeys.length];
+        int old = 0;
+        int added = 0;
+        int out = 0;
+        // On equal keys the rows already here go first, since they were added first
+        while (old < size && added < count) {
+            if (keys[old] <= newKeys[added]) {
+                mergedKeys[out] = keys[old];
+                mergedRows[out++] = rows[old++];
+            } else {
+                mergedKeys[out] = newKeys[added];
+                mergedRows[out++] = newRows[added++];
+            }
+        }
+        System.arraycopy(keys, old, mergedKeys, out, size - old);
+        System.arraycopy(rows, old, mergedRows, out, size - old);
+        out += size - old;
+        System.arraycopy(newKeys, added, mergedKeys, out, count - added);
+        System.arraycopy(newRows, added, mergedRows, out, count - added);
+        keys = mergedKeys;
+        rows = mergedRows;
+        size += count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Bytes taken by the keys and row numbers, including room not used yet
+    public long estimateBytes() {
+        return keys.length * 8L + rows.length * 4L;
+    }
+
+    // Row number at a position; position 0 is the oldest transaction
+    public int getRow(int position) {
+        return rows[position];
+    }
+
+    // First position whose date is on or after epochDay
+    public int startOf(int epochDay) {
+        return firstAtOrAfter(keyOf(epochDay, 0));
+    }
+
+    // First position whose date is after epochDay
+    public int endOf(int epochDay) {
+        return firstAtOrAfter(keyOf(epochDay + 1, 0));
+    }
+
+    private int firstAtOrAfter(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstAfter(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    static long keyOf(int epochDay, int secondOfDay) {
+        return (long) epochDay * SECONDS_PER_DAY + secondOfDay;
+    }
+
+    // Sorts the first count keys, moving the rows along with them. Row numbers are below rowLimit.
+    static void sort(long[] keys, int[] rows, int count, long minKey, long maxKey, int rowLimit) {
+        int rowBits = 64 - Long.numberOfLeadingZeros(rowLimit);
+        int keyBits = 64 - Long.numberOfLeadingZeros(maxKey - minKey);
+        if (rowBits + keyBits < 64) {
+            packedSort(keys, rows, count, minKey, rowBits);
+        } else {
+            mergeSort(keys, rows, count);
+        }
+    }
+
+    // When the key range and the row numbers fit in one long together, packs them and uses
+    // the JDK's primitive sort. Packing the row number in keeps rows with equal keys in order.
+    private static void packedSort(long[] keys, int[] rows, int count, long minKey, int rowBits) {
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = (keys[i] - minKey) << rowBits | rows[i];
+        }
+        Arrays.parallelSort(packed);
+        long rowMask = (1L << rowBits) - 1;
+        for (int i = 0; i < count; i++) {
+            keys[i] = (packed[i] >>> rowBits) + minKey;
+            rows[i] = (int) (packed[i] & rowMask);
+        }
+    }
+
+    // Stable bottom-up merge sort of the first count keys, moving the rows along with them
+    private static void mergeSort(long[] keys, int[] rows, int count) {
+        long[] keyBuffer = new long[count];
+        int[] rowBuffer = new int[count];
+        long[] fromKeys = keys;
+        int[] fromRows = rows;
+        long[] toKeys = keyBuffer;
+        int[] toRows = rowBuffer;
+
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int left = low;
+                int right = middle;
+                for (int out = low; out < high; out++) {
+                    if (left < middle && (right >= high || fromKeys[left] <= fromKeys[right])) {
+                        toKeys[out] = fromKeys[left];
+                        toRows[out] = fromRows[left++];
+                    } else {
+                        toKeys[out] = fromKeys[right];
+                        toRows[out] = fromRows[right++];
+                    }
+                }
+            }
+            long[] swapKeys = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+            int[] swapRows = fromRows;
+            fromRows = toRows;
+            toRows = swapRows;
+        }
+
+        // Make sure the result ends up in the arrays that were passed in
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, count);
+            System.arraycopy(fromRows, 0, rows, 0, count);
+        }
+    }
+}
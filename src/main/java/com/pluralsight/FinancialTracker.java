@@ -1,43 +1,133 @@
 package com.pluralsight;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Comparator;
-import java.util.Collections;
 
 
     public class FinancialTracker {
 
-        private static final ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+        // Replaced by a new store if transactions.csv is rewritten while it is being followed.
+        // Empty after a start from the month partitions, until loadHistory reads every month into it.
+        private static TransactionStore transactions = new TransactionStore();
+        // False while transactions is still empty because only the month partitions are open
+        private static boolean historyLoaded = true;
+        // The rows split into one file per month, so a start doesn't read the whole history.
+        // Turned off with -Dtracker.partitions=false.
+        private static final boolean PARTITIONED = Boolean.parseBoolean(System.getProperty("tracker.partitions", "true"));
+        private static PartitionedLedger partitions;
         private static final String FILE_NAME = "transactions.csv";
+        // Files at least this big are loaded in parallel
+        private static final long PARALLEL_LOAD_THRESHOLD = 16L * 1024 * 1024;
         private static final String DATE_FORMAT = "yyyy-MM-dd";
         private static final String TIME_FORMAT = "HH:mm:ss";
         private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DATE_FORMAT);
         private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern(TIME_FORMAT);
 
+        // Stays open for the whole session so each new transaction is a single append
+        private static LedgerWriter ledgerWriter;
+        // Every append is logged here first, so a crash part way through one can be repaired
+        private static WriteAheadLog writeAheadLog;
+        // False if the load stopped early, so the store is missing rows that are in the file
+        private static boolean storeMatchesFile;
+        // How many bytes at the start of the file the load read the rows of, and how many bytes the
+        // writer had written by then. The store has the rows of those bytes and of every byte the
+        // writer adds after them, and of nothing past that.
+        private static long loadedBytes;
+        private static long writtenAtLoad;
+
+        // Every listing is printed through this, into one big buffer instead of a console flush per line
+        private static final LedgerPrinter printer = new LedgerPrinter(System.out);
+        // How listings are paged, set with S) Page Settings in the Ledger menu. 0 means no pages and no limit.
+        private static long pageSize = Long.getLong("tracker.pageSize", 0);
+        private static long skipRows;
+        private static long stopAfter = Long.getLong("tracker.limit", 0);
+        private static LedgerPrinter.PageBreak pageBreak;
+
+        // Only used with --serve: the HTTP API, the ledger it serves and how many rows that ledger started with
+        private static LedgerServer server;
+        private static ConcurrentLedger servedLedger;
+        private static int servedRowsAtStart;
+
+        // Only used with --watch: follows transactions.csv while other programs append to it,
+        // and holds the rows it found until the menu adds them to the store
+        private static LedgerFollower follower;
+        private static FollowedRows followedRows;
+
+        // Shown by M) Metrics, over JMX and on GET /metrics; only recorded while Metrics.ENABLED
+        private static final LatencyRecorder LOAD_LATENCY = Metrics.latency("load");
+        private static final Metrics.Counter ROWS_LOADED = Metrics.counter("load.rows");
+        private static final Metrics.Counter LINES_REJECTED = Metrics.counter("load.rejected");
+        private static final Metrics.Counter LOAD_ERRORS = Metrics.counter("load.errors");
+        private static final Metrics.Counter ROWS_FOLLOWED = Metrics.counter("follow.rows");
+        private static final Metrics.Counter FOLLOW_REJECTED = Metrics.counter("follow.rejected");
+        private static final LatencyRecorder IMPORT_LATENCY = Metrics.latency("import");
+        private static final Metrics.Counter ROWS_IMPORTED = Metrics.counter("import.rows");
+        private static final Metrics.Counter IMPORT_REJECTED = Metrics.counter("import.rejected");
+        // The store's arrays are only safe to walk on the main thread, so store.bytes shows the
+        // size noted there after the last change rather than working it out on a JMX or HTTP thread
+        private static volatile long storeBytes;
+
         public static void main(String[] args) {
+            openWriteAheadLog(FILE_NAME);
+            // The writer may end the last line with a newline, so open it before the file is read
+            // and the binary copy made from it
+            openLedgerWriter(FILE_NAME);
+            // Make sure everything reaches the disk even if the app is stopped with Ctrl+C
+            Runtime.getRuntime().addShutdownHook(new Thread(FinancialTracker::closeLedgerWriter));
+            registerMetrics();
             loadTransactions(FILE_NAME);
+            noteStoreBytes();
+            int importAt = Arrays.asList(args).indexOf("--import");
+            if (importAt >= 0) {
+                // Add the rows of a file, or of standard input with --import -, then exit
+                if (importAt + 1 < args.length) {
+                    importTransactions(args[importAt + 1]);
+                } else {
+                    System.out.println("Error: --import needs a file name, or - for standard input!");
+                    System.out.println("===========================");
+                }
+                closeLedgerWriter();
+                return;
+            }
+            if (Arrays.asList(args).contains("--serve")) {
+                // Run without the menus and answer HTTP requests instead
+                startServer();
+                return;
+            }
+            if (Arrays.asList(args).contains("--watch")) {
+                // Pick up the rows other programs add to the file while the menus are open
+                startFollowing(FILE_NAME);
+            }
             Scanner scanner = new Scanner(System.in);
+            pageBreak = () -> askForMore(scanner);
             boolean running = true;
 
             while (running) {
+                noteStoreBytes();
                 System.out.println("Welcome to Dreamchaser's TransactionApp");
                 System.out.println("Choose an option:");
                 System.out.println("D) Add Deposit");
                 System.out.println("P) Make Payment ");
                 System.out.println("L) Ledger");
+                System.out.println("I) Import Transactions");
+                System.out.println("M) Metrics");
                 System.out.println("X) Exit");
 
                 String input = scanner.nextLine().trim();
+                applyFollowedRows();
 
                 switch (input.toUpperCase()) {
                     case "D":
@@ -49,6 +139,15 @@ import java.util.Collections;
                     case "L":
                         ledgerMenu(scanner);
                         break;
+                    case "I":
+                        System.out.println("Please enter the name of the file to import: ");
+                        importTransactions(scanner.nextLine().trim());
+                        break;
+                    case "M":
+                        // Every counter, latency and gauge recorded so far
+                        System.out.print(Metrics.dump());
+                        System.out.println("=================================");
+                        break;
                     case "X":
                         running = false;
                         break;
@@ -59,12 +158,359 @@ import java.util.Collections;
             }
 
             scanner.close();
+            closeLedgerWriter();
+        }
+
+        private static void openWriteAheadLog(String fileName) {
+            // Read the log left by the last run and put back any lines a crash kept out of the CSV.
+            // The log is folded into the binary copy every -Dtracker.walCompactBytes (16 MB by default).
+            Path path = Paths.get(fileName);
+            long compactBytes = Long.getLong("tracker.walCompactBytes", 16L * 1024 * 1024);
+            try {
+                writeAheadLog = WriteAheadLog.open(siblingWithSuffix(path, ".wal"), path, siblingWithSuffix(path, ".bin"), compactBytes);
+                if (writeAheadLog.getDroppedBytes() > 0) {
+                    System.out.println("Dropped " + writeAheadLog.getDroppedBytes() + " damaged bytes at the end of the log.");
+                }
+                int repaired = writeAheadLog.repairCsv();
+                if (repaired > 0) {
+                    System.out.println("Recovered " + repaired + " transactions that were not saved to " + fileName + ".");
+                }
+            } catch (IOException e) {
+                writeAheadLog = null;
+                System.out.println("Error: Could not open the log of " + fileName + "!");
+                System.out.println("===========================");
+            }
+        }
+
+        private static void openLedgerWriter(String fileName) {
+            // The fsync policy can be picked with -Dtracker.fsync=EVERY_WRITE, INTERVAL or ON_EXIT
+            LedgerWriter.FsyncPolicy policy = LedgerWriter.FsyncPolicy.valueOf(
+                    System.getProperty("tracker.fsync", "INTERVAL").toUpperCase());
+            long intervalMillis = Long.getLong("tracker.fsyncIntervalMillis", 1000);
+            try {
+                // The writer creates a missing file, with a header line
+                if (!Files.exists(Paths.get(fileName))) {
+                    System.out.println("Inventory does not exist! Creating file...\n");
+                }
+                ledgerWriter = new LedgerWriter(Paths.get(fileName), policy, intervalMillis, writeAheadLog);
+            } catch (IOException e) {
+                System.out.println("Error: Could not open " + fileName + " for writing!");
+                System.out.println("===========================");
+            }
+        }
+
+        private static void registerMetrics() {
+            // The gauges are read each time the metrics are shown, so they cost nothing until then
+            if (!Metrics.ENABLED) {
+                return;
+            }
+            if (ledgerWriter != null) {
+                Metrics.register("append", ledgerWriter.getLatencies());
+            }
+            Metrics.gauge("store.rows", () -> transactions.size());
+            Metrics.gauge("store.bytes", () -> storeBytes);
+            Metrics.gauge("partitions.loaded", () -> partitions == null ? 0 : partitions.getLoadedCount());
+            Metrics.gauge("partitions.reads", () -> partitions == null ? 0 : partitions.getReads());
+            Metrics.registerMBean();
+        }
+
+        private static void noteStoreBytes() {
+            if (Metrics.ENABLED) {
+                storeBytes = transactions.estimateBytes();
+            }
+        }
+
+        private static long startQuery() {
+            // Time spent waiting at a page break is the reader's, so it is left out
+            return Metrics.ENABLED ? System.nanoTime() - printer.getWaitNanos() : 0;
+        }
+
+        private static void endQuery(String report, long started) {
+            if (Metrics.ENABLED) {
+                Metrics.latency("query." + report).record(System.nanoTime() - printer.getWaitNanos() - started);
+            }
+        }
+
+        private static void startFollowing(String fileName) {
+            // Start where the load stopped reading, so rows appended since then are picked up too
+            try {
+                Path path = Paths.get(fileName);
+                long covered = coveredBytes();
+                followedRows = new FollowedRows();
+                follower = new LedgerFollower(path, covered, countLines(path, covered), followedRows);
+                System.out.println("Watching " + fileName + " for new transactions.");
+            } catch (IOException e) {
+                System.out.println("Error: Could not watch " + fileName + " for changes!");
+                System.out.println("===========================");
+            }
+        }
+
+        private static long countLines(Path path, long length) throws IOException {
+            // Lines in the first length bytes. Only used so errors in rows added later name the right line.
+            long lines = 0;
+            try (InputStream in = Files.newInputStream(path)) {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while (length > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length))) > 0) {
+                    length -= read;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                }
+            }
+            return lines;
+        }
+
+        private static synchronized void applyFollowedRows() {
+            // Add the rows the follower found since the last menu choice. If the file was rewritten,
+            // start a new store, since the follower is reading the whole file again.
+            if (followedRows == null) {
+                return;
+            }
+            FollowedRows.Batch batch = followedRows.take();
+            if (batch.rewritten) {
+                // The partitions are made again from the new store on exit
+                transactions = new TransactionStore();
+                historyLoaded = true;
+                partitions = null;
+                storeMatchesFile = true;
+                System.out.println(FILE_NAME + " was rewritten, reloading it.");
+                reopenLedgerWriter();
+            }
+            // A big batch is added like a load, with the date index sorted once at the end
+            boolean bulk = batch.rows.size() > 1024 && historyLoaded;
+            if (bulk) {
+                transactions.beginLoad();
+            }
+            try {
+                for (Transaction transaction : batch.rows) {
+                    addTransaction(transaction);
+                }
+            } catch (IOException e) {
+                storeMatchesFile = false;
+                System.out.println("Error: Could not add the new transactions to their month!");
+            }
+            if (bulk) {
+                transactions.endLoad();
+            }
+            if (Metrics.ENABLED) {
+                ROWS_FOLLOWED.add(batch.rows.size());
+                FOLLOW_REJECTED.add(batch.unreadable);
+            }
+            if (!batch.rows.isEmpty()) {
+                System.out.println("Picked up " + batch.rows.size() + " new transactions from " + FILE_NAME + ".");
+                noteStoreBytes();
+            }
+            if (batch.unreadable > 0) {
+                storeMatchesFile = false;
+                System.out.println("Error! " + batch.unreadable + " new lines could not be read: " + batch.firstError);
+                System.out.println("=================================");
+            }
+        }
+
+        private static void reopenLedgerWriter() {
+            // The writer still has the old file open, which a rewrite may have moved away or deleted,
+            // so open it again on the file as it is now. The log held lines of the old file, so it
+            // starts over from here as well.
+            if (ledgerWriter == null) {
+                return;
+            }
+            try {
+                ledgerWriter.close();
+            } catch (IOException e) {
+                System.out.println("Error: Could not save the last transactions to the old " + FILE_NAME + "!");
+            }
+            ledgerWriter = null;
+            openLedgerWriter(FILE_NAME);
+            if (ledgerWriter == null) {
+                return;
+            }
+            if (Metrics.ENABLED) {
+                Metrics.register("append", ledgerWriter.getLatencies());
+            }
+            if (writeAheadLog != null) {
+                try {
+                    writeAheadLog.reset(Files.size(Paths.get(FILE_NAME)));
+                } catch (IOException e) {
+                    System.out.println("Error: Could not start the log of " + FILE_NAME + " over!");
+                }
+            }
+        }
+
+        private static void stopFollowing() {
+            // Read whatever is still new, then add it, so the store ends up matching the file
+            if (follower == null) {
+                return;
+            }
+            try {
+                follower.poll();
+                follower.close();
+                applyFollowedRows();
+                // The follower read the file up to its offset, the lines this app wrote included
+                loadedBytes = follower.getOffset();
+                writtenAtLoad = ledgerWriter == null ? 0 : ledgerWriter.getBytesWritten();
+            } catch (IOException e) {
+                storeMatchesFile = false;
+            }
+            follower = null;
+            followedRows = null;
+        }
+
+        private static void appendToFile(String line) throws IOException {
+            // Our own lines are already in the store, so the follower has to skip them
+            if (follower != null) {
+                follower.expectOwnLine(line);
+            }
+            ledgerWriter.append(line);
+        }
+
+        private static void importTransactions(String source) {
+            // Reads a file, or standard input for "-", and adds every row to the file in large appends.
+            // Bad lines are skipped and listed next to the source, the same way a load lists them.
+            if (ledgerWriter == null) {
+                System.out.println("Error: " + FILE_NAME + " is not open for writing!");
+                System.out.println("===========================");
+                return;
+            }
+            boolean fromStdin = source.equals("-");
+            Path path = Paths.get(fromStdin ? "import.csv" : source);
+            if (!fromStdin && !Files.isRegularFile(path)) {
+                System.out.println("Error: Could not find " + source + "!");
+                System.out.println("===========================");
+                return;
+            }
+            RejectReport rejects = new RejectReport(siblingWithSuffix(path, ".rejects.csv"));
+            try {
+                long started = System.nanoTime();
+                BatchImporter importer = new BatchImporter(rejects);
+                long rows = fromStdin ? importer.readStream(System.in)
+                        : importer.readFile(path, Runtime.getRuntime().availableProcessors());
+                rejects.close();
+
+                // The lines reach the file before the rows are shown anywhere, so a failed write adds nothing
+                importer.writeTo(ledgerWriter, follower);
+                if (historyLoaded) {
+                    importer.addTo(transactions);
+                }
+                if (partitions != null) {
+                    importer.addTo(partitions);
+                }
+                long elapsed = System.nanoTime() - started;
+                if (Metrics.ENABLED) {
+                    IMPORT_LATENCY.record(elapsed);
+                    ROWS_IMPORTED.add(rows);
+                    IMPORT_REJECTED.add(rejects.getCount());
+                }
+                double seconds = Math.max(elapsed, 1) / 1_000_000_000.0;
+                System.out.printf("Imported %,d transactions from %s in %,d ms (%,.0f rows/sec)%n",
+                        rows, fromStdin ? "standard input" : path.getFileName(), elapsed / 1_000_000, rows / seconds);
+                printRejects(rejects);
+            } catch (IOException | UncheckedIOException ex) {
+                System.out.println("Error: Could not import " + source + "!");
+                System.out.println("===========================");
+                try {
+                    rejects.close();
+                } catch (IOException e) {
+                    // Already reporting an error
+                }
+            }
+        }
+
+        private static void startServer() {
+            // The port and the number of request threads can be set with -Dtracker.port and -Dtracker.httpThreads
+            int port = Integer.getInteger("tracker.port", 8080);
+            int threads = Integer.getInteger("tracker.httpThreads", 64);
+            if (!loadHistory()) {
+                return;
+            }
+            // Rows added through the API reach the store when the server stops, and the partitions
+            // are then made again from the whole store on exit
+            partitions = null;
+            servedLedger = ConcurrentLedger.copyOf(transactions);
+            servedRowsAtStart = servedLedger.size();
+            if (Metrics.ENABLED) {
+                // The served ledger is the one that grows while the server runs
+                Metrics.gauge("store.rows", () -> servedLedger.size());
+            }
+            try {
+                server = new LedgerServer(servedLedger, ledgerWriter, port, threads);
+                server.start();
+                System.out.println("Serving the ledger on http://localhost:" + server.getPort() + "/transactions");
+                System.out.println("Press Ctrl+C to stop.");
+            } catch (IOException e) {
+                System.out.println("Error: Could not start the server on port " + port + "!");
+                System.out.println("===========================");
+            }
+        }
+
+        private static void stopServer() {
+            if (server == null) {
+                return;
+            }
+            // Let the requests in progress finish, then copy what they added into the store,
+            // so the binary copy saved on exit has every transaction in the file
+            server.stop(2);
+            server = null;
+            LedgerSnapshot snapshot = servedLedger.snapshot();
+            for (int row = servedRowsAtStart; row < snapshot.size(); row++) {
+                transactions.add(snapshot.getEpochDay(row), snapshot.getSecondOfDay(row), snapshot.getAmountCents(row),
+                        snapshot.getDescription(row), snapshot.getVendor(row));
+            }
+        }
+
+        private static synchronized void closeLedgerWriter() {
+            stopServer();
+            if (ledgerWriter == null) {
+                return;
+            }
+            try {
+                // Every append is in the file once it returns, so the follower can read the last of it
+                // now. A rewrite it finds opens the writer again, so the writer is closed after this.
+                boolean followed = follower != null && follower.getChanges() > 0;
+                stopFollowing();
+                if (ledgerWriter == null) {
+                    // The writer couldn't be opened again after a rewrite, so nothing was added since
+                    if (writeAheadLog != null) {
+                        writeAheadLog.close();
+                        writeAheadLog = null;
+                    }
+                    return;
+                }
+                LatencyRecorder latencies = ledgerWriter.getLatencies();
+                ledgerWriter.close();
+                // Imports add lines without adding to the append latencies
+                if (ledgerWriter.getLineCount() > 0 || followed) {
+                    if (latencies.getCount() > 0) {
+                        System.out.println("Ledger appends: " + latencies.summary());
+                    }
+                    // The file has new rows, so bring the binary copy and the partitions up to date as well,
+                    // after which the log isn't needed any more. The binary copy needs every row in
+                    // memory, so a session that never loaded them only saves the partitions.
+                    if (writeAheadLog != null) {
+                        writeAheadLog.awaitCompaction();
+                    }
+                    boolean saved = !historyLoaded || saveBinaryLedger(FILE_NAME);
+                    saved = savePartitions(FILE_NAME) && saved;
+                    if (saved && writeAheadLog != null) {
+                        writeAheadLog.reset(Files.size(Paths.get(FILE_NAME)));
+                    }
+                }
+                if (writeAheadLog != null) {
+                    writeAheadLog.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Error: Could not save " + FILE_NAME + "!");
+            }
+            ledgerWriter = null;
+            writeAheadLog = null;
         }
 
         public static void loadTransactions(String fileName) {
             // This method should load transactions from a file with the given file name.
             // If the file does not exist, it should be created.
-            // The transactions should be stored in the `transactions` ArrayList.
+            // The transactions should be stored in the `transactions` store.
             // Each line of the file represents a single transaction in the following format:
             // <date>,<time>,<vendor>,<type>,<amount>
             // For example: 2023-04-29,13:45:00,Amazon,PAYMENT,29.99
@@ -84,45 +530,289 @@ import java.util.Collections;
                 System.out.println("===========================");
             }
 
+            // Lines that can't be read are skipped and listed in transactions.rejects.csv
+            RejectReport rejects = new RejectReport(siblingWithSuffix(Paths.get(fileName), ".rejects.csv"));
             try {
-                // Create a BufferedReader to read from the specified file (assumed 'fileName' contains the file path)
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
-
-                // Skip the first line assuming it's a header or not needed
-                bufferedReader.readLine();
-
-                // Read the lines from the file until the end
-                String input;
-                while ((input = bufferedReader.readLine()) != null) {
-                    // Split the input line using the "|" delimiter
-                    String[] tokens = input.split("\\|");
-
-                    // Extract and parse data from the split tokens
-                    String date = tokens[0];
-                    LocalDate realDate = LocalDate.parse(date);
-                    String time = tokens[1];
-                    LocalTime realTime = LocalTime.parse(time);
-                    String description = tokens[2];
-                    String vendor = tokens[3];
-                    double price = Double.parseDouble(tokens[4]);
+                long started = System.nanoTime();
+
+                // Add each valid row to the store
+                TransactionParser.RowHandler handler = new TransactionParser.RowHandler() {
+                    @Override
+                    public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                        // Add the parsed data to the 'transactions' store
+                        transactions.add(epochDay, secondOfDay, amountCents, description, vendor);
+                    }
 
-                    // Create a new Transaction object with the parsed data
-                    Transaction loadTransactions = new Transaction(realDate, realTime, description, vendor, price);
+                    @Override
+                    public boolean malformed(long lineNumber, String reason) {
+                        return malformed(lineNumber, reason, null);
+                    }
 
-                    // Add the Transaction object to the 'transactions' list
-                    transactions.add(loadTransactions);
+                    @Override
+                    public boolean malformed(long lineNumber, String reason, String line) {
+                        // Skip the line and keep going, so one bad line doesn't cost every row after it.
+                        // The store still holds every row of the file, so it can be saved as the binary copy.
+                        try {
+                            rejects.add(lineNumber, reason, line);
+                            return true;
+                        } catch (IOException e) {
+                            // Without a report the line would be lost without a trace, so stop here
+                            storeMatchesFile = false;
+                            System.out.println("Error! Line " + lineNumber + ": " + reason);
+                            System.out.println("=================================");
+                            return false;
+                        }
+                    }
+                };
+
+                // Skip the first line if it's a header.
+                // Big files are split up and parsed on every core, small ones on this thread.
+                Path path = Paths.get(fileName);
+                int cores = Runtime.getRuntime().availableProcessors();
+                Path binary = siblingWithSuffix(path, ".bin");
+                // Only the file as it is now is read; rows other programs add from here on are not
+                long fileSize = Files.size(path);
+                // The binary copy plus the lines logged since it was made may add up to the file as it is now
+                int replayFrom = writeAheadLog == null ? -1
+                        : writeAheadLog.replayStart(BinaryLedger.sourceSizeOf(binary), fileSize);
+                // Month partitions made from the file as it is now hold every row of it, and only need
+                // their manifest read
+                boolean fromPartitions = openPartitions(path);
+                boolean fromLog = !fromPartitions && replayFrom >= 0;
+                boolean fromBinary = fromLog || fromPartitions || BinaryLedger.isCurrent(binary, path);
+                long rows;
+                storeMatchesFile = true;
+                loadedBytes = fileSize;
+                transactions.beginLoad();
+                try {
+                    if (fromPartitions) {
+                        // Each month is read when a report first shows it, and every month once a search needs them all
+                        historyLoaded = false;
+                        rows = partitions.size();
+                        loadedBytes = partitions.getSourceSize();
+                    } else if (fromBinary) {
+                        // The binary copy was made from the file as it is now, so skip the text parsing
+                        rows = BinaryLedger.load(binary, transactions);
+                        if (fromLog) {
+                            rows += writeAheadLog.replay(replayFrom, handler);
+                        } else {
+                            loadedBytes = BinaryLedger.sourceSizeOf(binary);
+                        }
+                    } else if (cores > 1 && fileSize >= PARALLEL_LOAD_THRESHOLD) {
+                        rows = ParallelTransactionLoader.load(path, true, cores, handler, fileSize);
+                    } else {
+                        rows = new TransactionParser(handler).parseFile(path, true, fileSize);
+                    }
+                } finally {
+                    // Sort the date index once, after every row is in
+                    transactions.endLoad();
+                }
+                writtenAtLoad = ledgerWriter == null ? 0 : ledgerWriter.getBytesWritten();
+                if (Metrics.ENABLED) {
+                    LOAD_LATENCY.record(System.nanoTime() - started);
+                    ROWS_LOADED.add(fromPartitions ? 0 : rows);
+                    LINES_REJECTED.add(rejects.getCount());
+                }
+                if (fromPartitions) {
+                    System.out.printf("Opened %,d transactions in %,d months from %s in %,d ms%n", rows,
+                            partitions.getMonthCount(), siblingWithSuffix(path, ".parts").getFileName(),
+                            (System.nanoTime() - started) / 1_000_000);
+                } else {
+                    printLoadStats(rows, System.nanoTime() - started, fromBinary ? binary : path);
+                }
+                // The report is only made when the text was parsed; loading the binary copy keeps the last one
+                if (!fromBinary || rejects.getCount() > 0) {
+                    rejects.close();
+                    printRejects(rejects);
+                }
+                if (fromLog && writeAheadLog.getRecords() > replayFrom) {
+                    System.out.println("Replayed " + (writeAheadLog.getRecords() - replayFrom) + " logged transactions.");
                 }
 
-                // Close the BufferedReader to free resources
-                bufferedReader.close();
+                // Save a binary copy so the next start doesn't have to parse the text again,
+                // and split the rows into months so it doesn't have to read all of them either
+                if (!fromBinary) {
+                    saveBinaryLedger(fileName);
+                }
+                if (!fromPartitions) {
+                    savePartitions(fileName);
+                }
+                // Unless the log was replayed, the file has every row in it, so the log starts over from here
+                if (!fromLog && writeAheadLog != null) {
+                    writeAheadLog.reset(Files.size(path));
+                }
 
             } catch (Exception ex) {
+                storeMatchesFile = false;
+                if (Metrics.ENABLED) {
+                    LOAD_ERRORS.increment();
+                }
                 // Handle any exceptions that may occur during the file reading or parsing
                 System.out.println("Error!");
                 System.out.println("=================================");
+                try {
+                    rejects.close();
+                } catch (IOException e) {
+                    // Already reporting an error
+                }
             }
         }
 
+        private static void printRejects(RejectReport rejects) {
+            // Say how many lines were skipped, show the first few and where to find the rest
+            if (rejects.getCount() == 0) {
+                return;
+            }
+            System.out.println("Skipped " + rejects.getCount() + " lines that could not be read:");
+            for (String reject : rejects.getFirst()) {
+                System.out.println("  " + reject);
+            }
+            System.out.println("Every skipped line is listed in " + rejects.getPath().getFileName());
+            System.out.println("=================================");
+        }
+
+        private static boolean saveBinaryLedger(String fileName) {
+            // Only a store that holds exactly what is in the file may be saved as its binary copy
+            if (!storeMatchesFile) {
+                return false;
+            }
+            try {
+                Path path = Paths.get(fileName);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (!coversFile(path)) {
+                    return false;
+                }
+                BinaryLedger.write(transactions, siblingWithSuffix(path, ".bin"), coveredBytes(), modified);
+                return true;
+            } catch (IOException e) {
+                System.out.println("Error: Could not save the binary copy of " + fileName + "!");
+                return false;
+            }
+        }
+
+        private static long coveredBytes() {
+            // Bytes at the start of the file whose rows are all in memory
+            return loadedBytes + (ledgerWriter == null ? 0 : ledgerWriter.getBytesWritten() - writtenAtLoad);
+        }
+
+        private static boolean coversFile(Path path) throws IOException {
+            // False once another program has added to the file behind the store's back. A copy stamped
+            // with the file as it is now would hide those rows from every later start, so none is saved
+            // and the next start reads the file again. Callers read the modified time first, so a row
+            // added after it makes the size differ here.
+            return Files.size(path) == coveredBytes();
+        }
+
+        private static boolean openPartitions(Path path) {
+            // Only partitions made from the file as it is now can stand in for it
+            Path directory = siblingWithSuffix(path, ".parts");
+            if (!PARTITIONED || !PartitionedLedger.isCurrent(directory, path)) {
+                return false;
+            }
+            try {
+                partitions = PartitionedLedger.open(directory);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private static boolean savePartitions(String fileName) {
+            // Same rule as the binary copy. Only months with new rows are written again, unless the
+            // partitions have to be made from the whole store.
+            if (!PARTITIONED) {
+                return true;
+            }
+            if (!storeMatchesFile) {
+                return false;
+            }
+            try {
+                Path path = Paths.get(fileName);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (!coversFile(path)) {
+                    return false;
+                }
+                if (partitions == null) {
+                    partitions = PartitionedLedger.write(transactions, siblingWithSuffix(path, ".parts"), coveredBytes(), modified);
+                } else {
+                    partitions.save(coveredBytes(), modified);
+                }
+                return true;
+            } catch (IOException e) {
+                System.out.println("Error: Could not save the month partitions of " + fileName + "!");
+                return false;
+            }
+        }
+
+        private static synchronized boolean loadHistory() {
+            // The views that need every row in one store (the vendor and word searches, the server)
+            // read every month into it the first time one of them is used
+            if (historyLoaded) {
+                return true;
+            }
+            long started = System.nanoTime();
+            TransactionStore store = new TransactionStore();
+            store.beginLoad();
+            try {
+                long rows = partitions.loadAll(store);
+                store.endLoad();
+                transactions = store;
+                historyLoaded = true;
+                if (Metrics.ENABLED) {
+                    LOAD_LATENCY.record(System.nanoTime() - started);
+                    ROWS_LOADED.add(rows);
+                }
+                printLoadStats(rows, System.nanoTime() - started, siblingWithSuffix(Paths.get(FILE_NAME), ".parts"));
+                return true;
+            } catch (IOException e) {
+                System.out.println("Error: Could not read the month partitions of " + FILE_NAME + "!");
+                System.out.println("===========================");
+                return false;
+            }
+        }
+
+        private static List<TransactionStore> stores() {
+            // Every row, oldest first: the one store once every row is loaded, otherwise the month
+            // partitions, each read when the loop gets to it
+            return historyLoaded ? List.of(transactions) : partitions.all();
+        }
+
+        private static List<TransactionStore> storesBetween(int fromDay, int toDay) {
+            // Same as stores, but only the months from fromDay to toDay
+            return historyLoaded ? List.of(transactions) : partitions.between(fromDay, toDay);
+        }
+
+        private static void addTransaction(Transaction transaction) throws IOException {
+            addTransaction((int) transaction.getDate().toEpochDay(), transaction.getTime().toSecondOfDay(),
+                    transaction.getAmountCents(), transaction.getDescription(), transaction.getVendor());
+        }
+
+        private static void addTransaction(int epochDay, int secondOfDay, long cents, String description, String vendor) throws IOException {
+            // A new row goes into the store if every row is loaded, and into the partition of its month,
+            // which is saved on exit
+            if (historyLoaded) {
+                transactions.add(epochDay, secondOfDay, cents, description, vendor);
+            }
+            if (partitions != null) {
+                partitions.add(epochDay, secondOfDay, cents, description, vendor);
+            }
+        }
+
+        private static Path siblingWithSuffix(Path path, String suffix) {
+            // The files kept next to transactions.csv share its name: transactions.bin, transactions.parts,
+            // transactions.wal and transactions.rejects.csv
+            String name = path.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            return path.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + suffix);
+        }
+
+        private static void printLoadStats(long rows, long elapsedNanos, Path source) {
+            // Report how many rows were loaded, from where and how fast
+            double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+            System.out.printf("Loaded %,d transactions from %s in %,d ms (%,.0f rows/sec)%n",
+                    rows, source.getFileName(), elapsedNanos / 1_000_000, rows / seconds);
+        }
+
 
 
         private static void addDeposit(Scanner scanner) {
@@ -132,15 +822,17 @@ import java.util.Collections;
             // After validating the input, a new `Deposit` object should be created with the entered values.
             // The new deposit should be added to the `transactions` ArrayList.
             try {
-                // Create a BufferedWriter to write to the specified file (assumed FILE_NAME contains the file path)
-                BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(FILE_NAME, true));
-
-
                 // Ask the user to enter the date in the specified format and parse it
                 System.out.println("Please enter the date in this format: (yyyy-MM-dd)");
                 String inputD = scanner.nextLine();
                 LocalDate realDate = LocalDate.parse(inputD,DATE_FORMATTER);
                 System.out.println(realDate);
+                // The file has four-digit years, so a date outside them couldn't be saved and read back
+                if (!TransactionFormat.isWritable(realDate)) {
+                    System.out.println("Error: The date must be from 0000-01-01 to 9999-12-31!");
+                    System.out.println("=====================================");
+                    return;
+                }
 
                 // Ask the user to enter the time in the specified format and parse it
                 System.out.println("Please enter the time of the deposit in this format: (HH:mm:ss)");
@@ -159,31 +851,25 @@ import java.util.Collections;
 
                 // Ask the user to enter the amount to deposit and validate it
                 System.out.println("Please enter the amount you'd like to deposit:");
-                double depositDouble = scanner.nextDouble();
-                scanner.nextLine();
+                long depositCents = readAmount(scanner);
 
                 // Check if the deposit amount is negative and handle the error
-                if (depositDouble < 0) {
+                if (depositCents < 0) {
                     System.out.println("Error: You have entered an incorrect amount.");
                     System.out.println("=====================================");
                 }
 
                 // Create a Transaction object with the entered data
-                Transaction deposit = new Transaction(realDate, realTime, description, vendor, depositDouble);
+                Transaction deposit = Transaction.ofCents(realDate, realTime, description, vendor, depositCents);
 
                 // Add the Transaction object to the 'transactions' list
-                transactions.add(deposit);
+                addTransaction(deposit);
 
                 // Format the transaction data for writing to the file
-                String display = "\n" + deposit.getDate() + "|" + deposit.getTime() + "|" + deposit.getDescription() + "|"
-                        + deposit.getVendor() + "|"
-                        + deposit.getAmount();
-
-                // Write the formatted data to the file
-                bufferedWriter.write(display);
+                String display = toFileLine(deposit);
 
-                // Close the BufferedWriter to save the changes to the file
-                bufferedWriter.close();
+                // Append the formatted data to the file
+                appendToFile(display);
                 System.out.println("Your Deposit transaction has been added.");
             } catch (Exception ex) {
                 // Handle any exceptions that may occur during input, writing, or parsing
@@ -195,6 +881,20 @@ import java.util.Collections;
 
 
 
+        private static long readAmount(Scanner scanner) {
+            // Read the amount as exact cents; anything that isn't a number is an error
+            long cents = Money.parseCents(scanner.nextLine());
+            if (cents == Money.INVALID) {
+                throw new IllegalArgumentException("Not an amount");
+            }
+            return cents;
+        }
+
+        private static String toFileLine(Transaction transaction) {
+            // <date>|<time>|<description>|<vendor>|<amount>, with the time always as HH:mm:ss
+            return TransactionFormat.appendLine(new StringBuilder(64), transaction).toString();
+        }
+
         private static void addPayment(Scanner scanner){
             // This method should prompt the user to enter the date, time, vendor, and amount of a payment.
             // The user should enter the date and time in the following format: yyyy-MM-dd HH:mm:ss
@@ -202,14 +902,17 @@ import java.util.Collections;
             // After validating the input, a new `Payment` object should be created with the entered values.
             // The new payment should be added to the `transactions` ArrayList.try {
             try {
-                // Create a BufferedWriter to write to the specified file (assumed FILE_NAME contains the file path)
-                BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(FILE_NAME, true));
-
                 // Prompt the user to enter the date in the specified format and parse it
                 System.out.println("Please enter the date of the payment in this format: (yyyy-MM-dd)");
                 String inputD = scanner.nextLine();
                 LocalDate realDate = LocalDate.parse(inputD,DATE_FORMATTER);
                 System.out.println(realDate);
+                // The file has four-digit years, so a date outside them couldn't be saved and read back
+                if (!TransactionFormat.isWritable(realDate)) {
+                    System.out.println("Error: The date must be from 0000-01-01 to 9999-12-31!");
+                    System.out.println("=====================================");
+                    return;
+                }
 
                 // Prompt the user to enter the time in the specified format and parse it
                 System.out.println("Please enter the time of the payment in this format: (HH:mm:ss)");
@@ -227,31 +930,26 @@ import java.util.Collections;
 
                 // Prompt the user to enter the amount to deposit and validate it
                 System.out.println("Please enter the amount you'd like to pay (-): $");
-                double paymentDouble = scanner.nextDouble();
-                scanner.nextLine();
+                long paymentCents = readAmount(scanner);
 
                 // Check if the deposit amount is negative and handle the error
-                if (paymentDouble > 0) {
+                if (paymentCents > 0) {
                     System.out.println("Error: You have entered an incorrect amount.");
                     System.out.println("=================================");
                 }
 
-                // Create a Transaction object with the entered data
-                Transaction payment = new Transaction(realDate, realTime, description,  vendor, paymentDouble);
+                // Create a Transaction object with the entered data.
+                // A payment always takes money out, so it is stored as a negative amount.
+                Transaction payment = Transaction.ofCents(realDate, realTime, description, vendor, -Math.abs(paymentCents));
 
                 // Add the Transaction object to the 'transactions' list
-                transactions.add(payment);
+                addTransaction(payment);
 
                 // Format the transaction data for writing to the file
-                String display = "\n" + payment.getDate() + "|" + payment.getTime() + "|" + payment.getDescription() + "|"
-                        + payment.getVendor() + "|"
-                        + "-" + payment.getAmount();
-
-                // Write the formatted data to the file
-                bufferedWriter.write(display);
+                String display = toFileLine(payment);
 
-                // Close the BufferedWriter to save the changes to the file
-                bufferedWriter.close();
+                // Append the formatted data to the file
+                appendToFile(display);
                 System.out.println("Your Payment transaction has been added!");
             } catch (Exception ex) {
                 // Handle any exceptions that may occur during input, writing, or parsing
@@ -270,23 +968,34 @@ import java.util.Collections;
                 System.out.println("D) Deposits");
                 System.out.println("P) Payments");
                 System.out.println("R) Reports");
+                System.out.println("S) Page Settings");
                 System.out.println("H) Home");
 
                 String input = scanner.nextLine().trim();
+                applyFollowedRows();
 
                 switch (input.toUpperCase()) {
                     case "A":
+                        long started = startQuery();
                         displayLedger();
+                        endQuery("all", started);
                         break;
                     case "D":
+                        started = startQuery();
                         displayDeposits();
+                        endQuery("deposits", started);
                         break;
                     case "P":
+                        started = startQuery();
                         displayPayments();
+                        endQuery("payments", started);
                         break;
                     case "R":
                         reportsMenu(scanner);
                         break;
+                    case "S":
+                        pageSettings(scanner);
+                        break;
                     case "H":
                         running = false;
                         break;
@@ -297,82 +1006,110 @@ import java.util.Collections;
             }
         }
 
-        private static void displayLedger() {
-            // Sort the transactions based on the transaction date in descending order
-            // Use the Collections.sort method to sort the transactions list based on the transaction date.
-            // The custom Comparator compares the dates in reverse order, ensuring that the newest transactions appear at the top.
-            Collections.sort(transactions, new Comparator<Transaction>() {
-                @Override
-                public int compare(Transaction t1, Transaction t2) {
-                    // Compare the dates in reverse order to get newest first
-                    return t2.getDate().compareTo(t1.getDate());
-                }
-            });
-
-            // Display the sorted transactions in a table
-            System.out.println("[ ===== [All Transactions] ======] ");
-
-            //Use \t to space the headers out.
-            System.out.println("\t\t\tDate\t\t\tTime\t\t\tType\t\t\tVendor\t\t\tAmount");
-            for (Transaction transaction : transactions) {
-                System.out.println(transaction);
+        private static void pageSettings(Scanner scanner) {
+            // Ask how the listings should be paged; every answer of 0 means no pages, no skipping or no limit
+            try {
+                System.out.println("How many rows per page? (0 = show everything at once)");
+                long newPageSize = Long.parseLong(scanner.nextLine().trim());
+                System.out.println("How many rows should be skipped at the start?");
+                long newSkipRows = Long.parseLong(scanner.nextLine().trim());
+                System.out.println("Stop after how many rows? (0 = no limit)");
+                long newStopAfter = Long.parseLong(scanner.nextLine().trim());
+                if (newPageSize < 0 || newSkipRows < 0 || newStopAfter < 0) {
+                    throw new IllegalArgumentException("Negative number");
+                }
+                pageSize = newPageSize;
+                skipRows = newSkipRows;
+                stopAfter = newStopAfter;
+                System.out.println("Page settings saved.");
+            } catch (Exception ex) {
+                System.out.println("Error: You have entered an incorrect number.");
+                System.out.println("=================================");
             }
         }
 
+        private static boolean askForMore(Scanner scanner) {
+            // Called after every full page; anything but Q shows the next one
+            System.out.println("-- Press Enter for more, or Q to stop --");
+            return !scanner.nextLine().trim().equalsIgnoreCase("Q");
+        }
 
+        private static LedgerPrinter startListing() {
+            // Start a listing with the current page settings and print the column headers
+            printer.begin(skipRows, stopAfter, pageSize, pageBreak);
+            printer.header();
+            return printer;
+        }
 
-
+        private static void displayLedger() {
+            // The date index keeps the transactions sorted by date and time at all times,
+            // so walking it backwards lists the newest transactions at the top without sorting.
+            // Started from the partitions, the months are walked newest first as well, so a
+            // listing that stops after a page only reads the last month or two.
+            System.out.println("[ ===== [All Transactions] ======] ");
+            try {
+                // Display the sorted transactions in a table, one row at a time as they are found
+                LedgerPrinter out = startListing();
+                List<TransactionStore> stores = stores();
+                boolean more = true;
+                for (int i = stores.size() - 1; i >= 0 && more; i--) {
+                    TransactionStore store = stores.get(i);
+                    DateIndex dateIndex = store.getDateIndex();
+                    int position = dateIndex.size() - 1;
+                    while (position >= 0 && (more = out.row(store, dateIndex.getRow(position)))) {
+                        position--;
+                    }
+                }
+                out.flush();
+            } catch (UncheckedIOException e) {
+                System.out.println("Error: Could not read the transactions of " + FILE_NAME + "!");
+            }
+        }
 
         private static void displayDeposits() {
-            // This method should display a table of all deposits in the `transactions` ArrayList.
+            // This method should display a table of all deposits in the `transactions` store.
             // The table should have columns for date, time, vendor, and amount.
-            ArrayList<Transaction> List = new ArrayList<>();
-            //We use the Collections.sort method to sort the transactions list based on the transaction date.
-            // The custom Comparator compares the dates in reverse order, ensuring that the newest transactions appear at the top.
-            transactions.sort(new Comparator<Transaction>() {
-                @Override
-                public int compare(Transaction t1, Transaction t2) {
-                    // Compare the dates in reverse order to get newest first
-                    return t2.getDate().compareTo(t1.getDate());
-                }
-            });
+            System.out.println("[ ========= [All Deposits] =========]");
 
+            // Walk the date index backwards so the newest deposits appear at the top
+            if (!displayNewestFirst(true)) {
+                System.out.println("Error! There is no deposits found!");
+            }
         }
 
         private static void displayPayments() {
-            // This method should display a table of all payments in the `transactions` ArrayList.
+            // This method should display a table of all payments in the `transactions` store.
             // The table should have columns for date, time, vendor, and amount.
-            ArrayList<Transaction> List = new ArrayList<>();
             System.out.println("[ ========= [All Payments] =========]");
 
-            //Headers and use \t to space the headers out
-            System.out.println("\t\t\t\tDate\t\t\t\tTime\t\t\t\tType\t\t\t\tVendor\t\t\t\tAmount");
-
-            //We use the Collections.sort method to sort the transactions list based on the transaction date.
-            // The custom Comparator compares the dates in reverse order, ensuring that the newest transactions appear at the top.
-            transactions.sort(new Comparator<Transaction>() {
-                @Override
-                public int compare(Transaction t1, Transaction t2) {
-                    // Compare the dates in reverse order to get newest first
-                    return t2.getDate().compareTo(t1.getDate());
-                }
-            });
-
-            for (Transaction transaction : transactions) {
-                if (transaction.getAmount() <= 0 ){
-                    List.add(transaction);
-                }
+            // Walk the date index backwards so the newest payments appear at the top
+            if (!displayNewestFirst(false)) {
+                System.out.println("Error! There is no payments found!");
             }
+        }
 
-            // Error Message
-            if(List.isEmpty()){
-                System.out.println("Error! There is no payments found!");
-            }else{
-                for(Transaction transaction : List){
-                    System.out.println(transaction);
+        private static boolean displayNewestFirst(boolean deposits) {
+            // Prints the deposits (amount above 0) or payments (0 or below), newest first.
+            // Returns false if there was nothing to print.
+            LedgerPrinter out = startListing();
+            try {
+                List<TransactionStore> stores = stores();
+                boolean more = true;
+                for (int i = stores.size() - 1; i >= 0 && more; i--) {
+                    TransactionStore store = stores.get(i);
+                    DateIndex dateIndex = store.getDateIndex();
+                    for (int position = dateIndex.size() - 1; position >= 0 && more; position--) {
+                        int row = dateIndex.getRow(position);
+                        if ((store.getAmountCents(row) > 0) == deposits) {
+                            more = out.row(store, row);
+                        }
+                    }
                 }
+            } catch (UncheckedIOException e) {
+                System.out.println("Error: Could not read the transactions of " + FILE_NAME + "!");
             }
-
+            out.flush();
+            return out.getSeen() > 0;
         }
 
         private static void reportsMenu(Scanner scanner) {
@@ -385,9 +1122,14 @@ import java.util.Collections;
                 System.out.println("3) Year To Date");
                 System.out.println("4) Previous Year");
                 System.out.println("5) Search by Vendor");
+                System.out.println("6) Search by Part of a Vendor Name");
+                System.out.println("7) Custom Date Range");
+                System.out.println("8) Search Descriptions and Vendors");
+                System.out.println("9) Analytics");
                 System.out.println("0) Back");
 
                 String input = scanner.nextLine().trim();
+                applyFollowedRows();
 
                 switch (input) {
                     case "1":
@@ -395,7 +1137,9 @@ import java.util.Collections;
                         // including the date, vendor, and amount for each transaction.
                         LocalDate thisMonth = LocalDate.now();
                         System.out.println("Displaying all the transactions for this month of " + thisMonth.getMonth() + ": ");
+                        long started = startQuery();
                         filterTransactionsByDate(thisMonth.withDayOfMonth(1), thisMonth);
+                        endQuery("month_to_date", started);
                         System.out.println("=========================");
                         break;
                     case "2":
@@ -403,7 +1147,9 @@ import java.util.Collections;
                         // including the date, vendor, and amount for each transaction.
                         LocalDate lastMonth = LocalDate.now().minusMonths(1);
                         System.out.println("Displaying all the transactions for this month of " + lastMonth.getMonth() + ": ");
+                        started = startQuery();
                         filterTransactionsByDate(lastMonth.withDayOfMonth(1), lastMonth.withDayOfMonth(lastMonth.lengthOfMonth()));
+                        endQuery("previous_month", started);
                         System.out.println("=====================");
                         break;
                     case "3":
@@ -411,7 +1157,9 @@ import java.util.Collections;
                         // including the date, vendor, and amount for each transaction.
                         LocalDate thisYear = LocalDate.now();
                         System.out.println("Displaying all transactions for the year of " + thisYear.getYear() + " so far: ");
+                        started = startQuery();
                         filterTransactionsByDate(thisYear.withDayOfYear(1), thisYear);
+                        endQuery("year_to_date", started);
                         System.out.println("============================");
                         break;
                     case "4":
@@ -419,7 +1167,9 @@ import java.util.Collections;
                         // including the date, vendor, and amount for each transaction.
                         LocalDate lastYear = LocalDate.now().minusYears(1);
                         System.out.println("Displaying all transactions for the year of " + lastYear.getYear() + ": ");
+                        started = startQuery();
                         filterTransactionsByDate(lastYear.withMonth(1).withDayOfMonth(1), lastYear.withMonth(12).withDayOfMonth(31));
+                        endQuery("previous_year", started);
                         System.out.println("==========================");
                         break;
                     case "5":
@@ -427,21 +1177,68 @@ import java.util.Collections;
                         // with that vendor, including the date, vendor, and amount for each transaction.
                         System.out.print("Please type the name of the vendor you would like to check for: ");
                         String vendorFilter = scanner.nextLine().trim();
-                        // Call the filterTransactionsByVendor function and store the result in a variable
-                        ArrayList<Transaction> filteredTransactions = filterTransactionsByVendor(vendorFilter);
-                        // Check if there are any matching transactions
-                        if (filteredTransactions.isEmpty()) {
+                        // filterTransactionsByVendor prints the matching transactions and returns how many there were
+                        started = startQuery();
+                        int found = filterTransactionsByVendor(vendorFilter);
+                        endQuery("vendor", started);
+                        if (found == 0) {
                             System.out.println("No transactions found for the specified vendor.");
-                        } else {
-                            // Print the filtered transactions
-                            for (Transaction transaction : filteredTransactions) {
-                                System.out.println(transaction); // You can adjust how you want to display the transactions
+                        }
+                        System.out.println("================================");
+                        break;
+                    case "6":
+                        // Prompt the user for part of a vendor name and list every vendor that contains it
+                        System.out.print("Please type part of the vendor name you would like to check for: ");
+                        String vendorText = scanner.nextLine().trim();
+                        started = startQuery();
+                        filterTransactionsByVendorText(vendorText);
+                        endQuery("vendor_text", started);
+                        System.out.println("================================");
+                        break;
+                    case "7":
+                        // Prompt the user for a start and end date, then list the transactions in between
+                        // along with their totals.
+                        try {
+                            System.out.println("Please enter the start date in this format: (yyyy-MM-dd)");
+                            LocalDate startDate = LocalDate.parse(scanner.nextLine().trim(), DATE_FORMATTER);
+                            System.out.println("Please enter the end date in this format: (yyyy-MM-dd)");
+                            LocalDate endDate = LocalDate.parse(scanner.nextLine().trim(), DATE_FORMATTER);
+                            System.out.println("Displaying all transactions from " + startDate + " to " + endDate + ": ");
+                            started = startQuery();
+                            filterTransactionsByDate(startDate, endDate);
+                            endQuery("date_range", started);
+                        } catch (Exception ex) {
+                            System.out.println("Error: You have entered an incorrect date.");
+                        }
+                        System.out.println("================================");
+                        break;
+                    case "8":
+                        // Prompt for words to look for and an optional date range, then list every match
+                        try {
+                            System.out.println("Please type the words to search for (e.g. coffee star* OR tea): ");
+                            String query = scanner.nextLine().trim();
+                            System.out.println("Start date (yyyy-MM-dd), or press Enter for any date: ");
+                            String from = scanner.nextLine().trim();
+                            LocalDate startDate = from.isEmpty() ? null : LocalDate.parse(from, DATE_FORMATTER);
+                            LocalDate endDate = null;
+                            if (startDate != null) {
+                                System.out.println("End date (yyyy-MM-dd): ");
+                                endDate = LocalDate.parse(scanner.nextLine().trim(), DATE_FORMATTER);
                             }
+                            started = startQuery();
+                            searchTransactions(query, startDate, endDate);
+                            endQuery("search", started);
+                        } catch (Exception ex) {
+                            System.out.println("Error: You have entered an incorrect date.");
                         }
                         System.out.println("================================");
+                        break;
+                    case "9":
+                        analyticsMenu(scanner);
+                        break;
                     case "0":
                         running = false;
-
+                        break;
                     default:
                         System.out.println("Invalid option");
                         break;
@@ -449,51 +1246,245 @@ import java.util.Collections;
             }
         }
 
+        private static void analyticsMenu(Scanner scanner) {
+            // Totals grouped by vendor and/or month for a date range, this year unless another is given
+            System.out.println("Analytics");
+            System.out.println("Choose an option:");
+            System.out.println("1) Top Vendors by Spending");
+            System.out.println("2) Totals by Month");
+            System.out.println("3) Top Vendors of Each Month");
+            System.out.println("4) Running Balance by Month");
+            String input = scanner.nextLine().trim();
+            if (!input.matches("[1-4]")) {
+                System.out.println("Invalid option");
+                return;
+            }
+            try {
+                LocalDate today = LocalDate.now();
+                System.out.println("Start date (yyyy-MM-dd), or press Enter for this year: ");
+                String from = scanner.nextLine().trim();
+                LocalDate startDate = from.isEmpty() ? today.withDayOfYear(1) : LocalDate.parse(from, DATE_FORMATTER);
+                LocalDate endDate = today;
+                if (!from.isEmpty()) {
+                    System.out.println("End date (yyyy-MM-dd): ");
+                    endDate = LocalDate.parse(scanner.nextLine().trim(), DATE_FORMATTER);
+                }
+                int top = 20;
+                if (input.equals("1") || input.equals("3")) {
+                    System.out.println("How many vendors to show? (press Enter for 20): ");
+                    String count = scanner.nextLine().trim();
+                    top = count.isEmpty() ? 20 : Integer.parseInt(count);
+                }
+                System.out.println("Displaying analytics from " + startDate + " to " + endDate + ": ");
+                long started = startQuery();
+                showAnalytics(input, startDate, endDate, top);
+                endQuery("analytics", started);
+            } catch (NumberFormatException ex) {
+                System.out.println("Error: You have entered an incorrect number.");
+            } catch (DateTimeParseException ex) {
+                System.out.println("Error: You have entered an incorrect date.");
+            } catch (RuntimeException ex) {
+                // Anything else, such as totals too large to add up, is reported as what it is
+                String reason = ex.getCause() == null ? ex.getMessage() : ex.getMessage() + ": " + ex.getCause().getMessage();
+                System.out.println("Error: Could not show the analytics: " + reason + "!");
+            }
+            System.out.println("================================");
+        }
+
+        private static void showAnalytics(String option, LocalDate startDate, LocalDate endDate, int top) {
+            // The groups are summed on every core, over the store or the months the range touches
+            int fromDay = (int) startDate.toEpochDay();
+            int toDay = (int) endDate.toEpochDay();
+            int cores = Runtime.getRuntime().availableProcessors();
+            try {
+                long started = System.nanoTime();
+                List<Analytics.Source> sources = new ArrayList<>();
+                // The running balance counts every row before the range as well
+                for (TransactionStore store : option.equals("4") ? stores() : storesBetween(fromDay, toDay)) {
+                    sources.add(Analytics.of(store));
+                }
+                List<Analytics.Group> groups;
+                switch (option) {
+                    case "1":
+                        groups = Analytics.top(Analytics.groupBy(sources, Analytics.Dimension.VENDOR, fromDay, toDay, cores),
+                                Analytics.Measure.SPENDING, top);
+                        break;
+                    case "2":
+                        groups = Analytics.groupBy(sources, Analytics.Dimension.MONTH, fromDay, toDay, cores);
+                        break;
+                    case "3":
+                        groups = Analytics.top(Analytics.groupBy(sources, Analytics.Dimension.VENDOR_MONTH, fromDay, toDay, cores),
+                                Analytics.Measure.SPENDING, top);
+                        break;
+                    default:
+                        groups = Analytics.runningBalance(sources, fromDay, toDay, cores);
+                        break;
+                }
+                long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+                if (groups.isEmpty()) {
+                    System.out.println("No transactions found in that range.");
+                    return;
+                }
+                StringBuilder line = new StringBuilder(160);
+                for (Analytics.Group group : groups) {
+                    line.setLength(0);
+                    line.append(String.format("%-32s ", group.getLabel())).append(group.getTotals());
+                    if (option.equals("4")) {
+                        Money.append(line.append("  Balance: "), group.getBalanceCents());
+                    }
+                    System.out.println(line);
+                }
+                System.out.printf("Grouped in %,d ms%n", elapsedMillis);
+            } catch (UncheckedIOException e) {
+                System.out.println("Error: Could not read the transactions of " + FILE_NAME + "!");
+            }
+        }
+
 
         private static void filterTransactionsByDate(LocalDate startDate, LocalDate endDate) {
             // This method filters the transactions by date and prints a report to the console.
             // It takes two parameters: startDate and endDate, which represent the range of dates to filter by.
-            // The method loops through the transactions list and checks each transaction's date against the date range.
             // Transactions that fall within the date range are printed to the console.
             // If no transactions fall within the date range, the method prints a message indicating that there are no results.
-            ArrayList<Transaction> found = new ArrayList<>();
-            for (Transaction transaction : transactions) {
-                LocalDate dateToCheck = transaction.getDate();
-                if (dateToCheck.isAfter(startDate.minusDays(1)) && dateToCheck.isBefore(endDate.plusDays(1))) {
-                    found.add(transaction);
+            // The deposit and payment totals of the range are printed after it.
+            // The date index is sorted by date, so the range is found with two binary searches,
+            // in each month the range touches if the app started from the partitions.
+            int fromDay = (int) startDate.toEpochDay();
+            int toDay = (int) endDate.toEpochDay();
+            try {
+                List<TransactionStore> stores = storesBetween(fromDay, toDay);
+                LedgerPrinter out = null;
+                boolean more = true;
+                for (int i = 0; i < stores.size() && more; i++) {
+                    TransactionStore store = stores.get(i);
+                    DateIndex dateIndex = store.getDateIndex();
+                    int position = dateIndex.startOf(fromDay);
+                    int end = dateIndex.endOf(toDay);
+                    if (position < end && out == null) {
+                        out = startListing();
+                    }
+                    while (position < end && (more = out.row(store, dateIndex.getRow(position)))) {
+                        position++;
+                    }
                 }
-            }
-            if (found.isEmpty()) {
-                System.out.println("Error!");
-            } else {
-                for (Transaction transaction : found) {
-                    System.out.println(transaction);
+                if (out == null) {
+                    System.out.println("Error!");
+                } else {
+                    out.flush();
+                }
+                // The totals come straight from the rollups each store keeps up to date
+                PeriodTotals totals = new PeriodTotals();
+                for (TransactionStore store : stores) {
+                    totals.add(store.getRollups().between(fromDay, toDay));
                 }
+                System.out.println(totals);
+            } catch (UncheckedIOException e) {
+                System.out.println("Error: Could not read the transactions of " + FILE_NAME + "!");
             }
         }
 
-        private static ArrayList<Transaction> filterTransactionsByVendor(String vendor) {
+        private static int filterTransactionsByVendor(String vendor) {
             // This method filters the transactions by vendor and prints a report to the console.
             // It takes one parameter: vendor, which represents the name of the vendor to filter by.
-            // The method loops through the transactions list and checks each transaction's vendor name against the specified vendor name.
-            // Transactions with a matching vendor name are printed to the console.
-            // If no transactions match the specified vendor name, the method prints a message indicating that there are no results.
-            ArrayList<Transaction> found = new ArrayList<>();
-            for (Transaction transaction : transactions) {
-                if (transaction.getVendor().equalsIgnoreCase(vendor)) {
-                    found.add(transaction);
+            // The vendor index already lists the rows of every vendor, ignoring case.
+            // Transactions with a matching vendor name are printed to the console,
+            // and the number of matching transactions is returned.
+            if (!loadHistory()) {
+                return 0;
+            }
+            return printRows(transactions.getVendorIndex().rowsFor(vendor));
+        }
+
+        private static void filterTransactionsByVendorText(String text) {
+            // Same as filterTransactionsByVendor, but matches any vendor whose name contains the text
+            if (loadHistory() && printRows(transactions.getVendorIndex().rowsContaining(text)) == 0) {
+                System.out.println("No transactions found for the specified vendor.");
+            }
+        }
+
+        private static void searchTransactions(String query, LocalDate startDate, LocalDate endDate) {
+            // The word index lists the rows of every word in a description or vendor, so nothing is scanned
+            if (!loadHistory()) {
+                return;
+            }
+            long started = System.nanoTime();
+            TextIndex textIndex = transactions.getTextIndex();
+            IntList rows = startDate == null ? textIndex.search(query)
+                    : textIndex.search(query, transactions, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+            long elapsedMicros = (System.nanoTime() - started) / 1000;
+            if (printRows(rows) == 0) {
+                System.out.println("No transactions found for \"" + query + "\".");
+                return;
+            }
+            System.out.printf("Found %,d transactions in %,d us%n", rows.size(), elapsedMicros);
+        }
+
+        private static int printRows(IntList rows) {
+            // Prints the given rows in order and returns how many there were
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            LedgerPrinter out = startListing();
+            int i = 0;
+            while (i < rows.size() && out.row(transactions, rows.get(i))) {
+                i++;
+            }
+            out.flush();
+            return rows.size();
+        }
+
+        // Collects the rows found by the follower's thread until the menu takes them
+        private static class FollowedRows implements LedgerFollower.Listener {
+
+            static class Batch {
+                final List<Transaction> rows;
+                final boolean rewritten;
+                final long unreadable;
+                final String firstError;
+
+                Batch(List<Transaction> rows, boolean rewritten, long unreadable, String firstError) {
+                    this.rows = rows;
+                    this.rewritten = rewritten;
+                    this.unreadable = unreadable;
+                    this.firstError = firstError;
                 }
             }
 
-            // Error Message
-                if (found.isEmpty()) {
-                    System.out.println("Error!");
-                } else {
-                    for (Transaction transaction : found) {
-                        System.out.println(transaction);
-                    }
+            private List<Transaction> rows = new ArrayList<>();
+            private boolean rewritten;
+            private long unreadable;
+            private String firstError;
+
+            @Override
+            public synchronized void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                rows.add(Transaction.ofCents(LocalDate.ofEpochDay(epochDay), LocalTime.ofSecondOfDay(secondOfDay),
+                        description, vendor, amountCents));
+            }
+
+            @Override
+            public synchronized boolean malformed(long lineNumber, String reason) {
+                // Skip the line and keep following, it is reported with the next batch
+                if (unreadable++ == 0) {
+                    firstError = "line " + lineNumber + ": " + reason;
                 }
-                return found;
-            }}
+                return true;
+            }
 
+            @Override
+            public synchronized void rewritten() {
+                rows.clear();
+                rewritten = true;
+                unreadable = 0;
+                firstError = null;
+            }
 
+            synchronized Batch take() {
+                Batch batch = new Batch(rows, rewritten, unreadable, firstError);
+                rows = new ArrayList<>();
+                rewritten = false;
+                unreadable = 0;
+                firstError = null;
+                return batch;
+            }
+        }
+    }
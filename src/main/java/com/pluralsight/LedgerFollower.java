@@ -0,0 +1,279 @@
+package com.pluralsight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Follows the transactions file while other programs append to it, like tail -f.
+// It remembers how far into the file it has read, and when the file changes it reads only the
+// bytes added since then and parses the complete lines among them. A line still being written
+// is left for the next change.
+//
+// If the file got shorter, was replaced by another file, or the bytes just before the saved
+// offset are no longer the same, it has been rewritten rather than appended to. The listener
+// is then told to start over and every line of the file is read again. Those bytes are checked
+// whenever the file's modified time changes, so a rewrite that keeps the size is noticed too.
+//
+// Lines this app appended through its own LedgerWriter are already in memory, so they are
+// registered with expectOwnLine before they are written and skipped when they show up.
+public class LedgerFollower implements Closeable {
+
+    // The last bytes read are compared on every change to spot a rewrite
+    private static final int TAIL_CHECK_BYTES = 64;
+    // Changes are also checked for this often, in case the file system doesn't report one
+    private static final long POLL_MILLIS = 1000;
+
+    // Told about every new row, on the follower's thread
+    public interface Listener extends TransactionParser.RowHandler {
+        // The file was rewritten: forget every row seen so far, the whole file is read again
+        void rewritten();
+    }
+
+    private final Path path;
+    private final Listener listener;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    // Everything below is only used while holding this follower's lock
+    private TransactionParser parser;
+    private long offset;
+    // The file itself (the inode on Unix), so a file moved over this one is noticed, and the
+    // modified time it had when it was last read
+    private Object fileKey;
+    private long modified;
+    private final byte[] tail = new byte[TAIL_CHECK_BYTES];
+    private int tailLength;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private final Map<String, Integer> ownLines = new HashMap<>();
+    private long changes;
+    private long rewrites;
+    private volatile boolean closed;
+
+    // Starts following path from offset, the number of bytes that are already loaded.
+    // lineNumber is the number of lines those bytes hold, so errors report the right line.
+    public LedgerFollower(Path path, long offset, long lineNumber, Listener listener) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.listener = listener;
+        this.parser = new TransactionParser(listener);
+        parser.setLineNumber(lineNumber);
+        this.offset = offset;
+        BasicFileAttributes attributes = Files.readAttributes(this.path, BasicFileAttributes.class);
+        this.fileKey = attributes.fileKey();
+        this.modified = attributes.lastModifiedTime().toMillis();
+        readTail();
+
+        watcher = this.path.getFileSystem().newWatchService();
+        // A directory is watched, not a file, so the file being replaced is noticed too
+        this.path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::follow, "ledger-follow");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Call with each line (without its newline) this app is about to append to the file
+    public synchronized void expectOwnLine(String line) {
+        ownLines.merge(line, 1, Integer::sum);
+    }
+
+    // Reads whatever was added to the file since the last check. Also called by the
+    // follower's thread whenever the file changes.
+    public synchronized void poll() throws IOException {
+        if (closed) {
+            return;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Probably being replaced, the new file will cause another change
+            return;
+        }
+        // The key is null where the file system doesn't have one
+        Object key = attributes.fileKey();
+        long size = attributes.size();
+        long modifiedNow = attributes.lastModifiedTime().toMillis();
+        if (size == offset && (key == null || key.equals(fileKey)) && modifiedNow == modified) {
+            return;
+        }
+        changes++;
+        if (size < offset || (key != null && !key.equals(fileKey)) || !tailMatches()) {
+            startOver(key);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            while (offset < size) {
+                int length = (int) Math.min(buffer.capacity(), size - offset);
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    // keep reading until the window is full
+                }
+                int consumed = parseLines(buffer.position());
+                if (consumed == 0) {
+                    if (length < buffer.capacity()) {
+                        // Only part of a line so far, wait for the rest of it
+                        break;
+                    }
+                    // A line longer than the buffer, make room for it
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                offset += consumed;
+            }
+        }
+        // A change made while the file was read moves the time again, so it is checked next time
+        modified = modifiedNow;
+        readTail();
+    }
+
+    // Bytes of the file that have been read
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    // How many times the file was found changed, and how many of those were rewrites
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    public synchronized long getRewrites() {
+        return rewrites;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watcher.close();
+        thread.interrupt();
+    }
+
+    private void follow() {
+        try {
+            while (!closed) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    boolean ours = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        ours |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || path.getFileName().equals(context);
+                    }
+                    key.reset();
+                    if (!ours) {
+                        continue;
+                    }
+                }
+                try {
+                    poll();
+                } catch (IOException e) {
+                    // The next change tries again
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // Parses the complete lines in the first length bytes of the buffer and returns how many bytes they take
+    private int parseLines(int length) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            int newline = TransactionParser.indexOf(buffer, (byte) '\n', lineStart, length);
+            if (newline < 0) {
+                break;
+            }
+            if (offset == 0 && lineStart == 0 && TransactionParser.isHeader(buffer, lineStart, newline)) {
+                // The first line of the file is the header
+                parser.setLineNumber(parser.getLineNumber() + 1);
+            } else if (!isOwnLine(lineStart, newline)) {
+                parser.parseLines(buffer, lineStart, newline + 1, false);
+            } else {
+                parser.setLineNumber(parser.getLineNumber() + 1);
+            }
+            lineStart = newline + 1;
+        }
+        return lineStart;
+    }
+
+    private boolean isOwnLine(int start, int end) {
+        if (ownLines.isEmpty()) {
+            return false;
+        }
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String line = new String(bytes, StandardCharsets.UTF_8);
+        Integer count = ownLines.get(line);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            ownLines.remove(line);
+        } else {
+            ownLines.put(line, count - 1);
+        }
+        return true;
+    }
+
+    private void startOver(Object key) {
+        rewrites++;
+        offset = 0;
+        fileKey = key;
+        tailLength = 0;
+        parser = new TransactionParser(listener);
+        listener.rewritten();
+    }
+
+    // Keeps the last bytes before offset, to compare with the file next time
+    private void readTail() throws IOException {
+        tailLength = (int) Math.min(TAIL_CHECK_BYTES, offset);
+        if (tailLength == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.wrap(tail, 0, tailLength);
+            while (bytes.hasRemaining() && channel.read(bytes, offset - tailLength + bytes.position()) > 0) {
+                // keep reading
+            }
+            if (bytes.hasRemaining()) {
+                tailLength = bytes.position();
+            }
+        }
+    }
+
+    private boolean tailMatches() throws IOException {
+        if (tailLength == 0) {
+            return true;
+        }
+        byte[] now = new byte[tailLength];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.wrap(now);
+            while (bytes.hasRemaining() && channel.read(bytes, offset - tailLength + bytes.position()) > 0) {
+                // keep reading
+            }
+            if (bytes.hasRemaining()) {
+                return false;
+            }
+        }
+        return Arrays.equals(now, 0, tailLength, tail, 0, tailLength);
+    }
+}
@@ -0,0 +1,298 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Prints transactions as fixed-width rows, straight from the store, through one large buffer
+// that is reused for every listing. Rows go out as they are found, so a view starts printing
+// at once and never collects its results first. Each description and vendor is padded and
+// encoded once, the first time it is printed, and copied into the buffer as bytes after that.
+//
+// Each listing can skip its first rows (offset), stop after a number of rows (limit), and
+// pause after every page to ask whether to go on.
+public class LedgerPrinter {
+
+    private static final int DATE_WIDTH = 10;
+    private static final int TIME_WIDTH = 8;
+    private static final int DESCRIPTION_WIDTH = 32;
+    private static final int VENDOR_WIDTH = 22;
+    private static final int AMOUNT_WIDTH = 14;
+    // Room needed by everything in a row except the description and vendor
+    private static final int FIXED_ROW_BYTES = DATE_WIDTH + TIME_WIDTH + 4 + 24 + 2;
+
+    // Asked after every full page; returning false ends the listing
+    public interface PageBreak {
+        boolean more();
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private int length;
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[256];
+    private final byte[] digits = new byte[24];
+    private final byte[] newline = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    // The padded, encoded cells of every description and vendor id of cellStore printed so far
+    private TransactionStore cellStore;
+    private byte[][] descriptionCells = new byte[0][];
+    private byte[][] vendorCells = new byte[0][];
+    // Rows in date order mostly share their date with the row before
+    private int cachedEpochDay = Integer.MIN_VALUE;
+    private final byte[] dateCell = new byte[DATE_WIDTH];
+
+    private long offset;
+    private long limit;
+    private long pageSize;
+    private PageBreak pageBreak;
+    private long seen;
+    private long printed;
+    private boolean stopped;
+    // Time spent waiting in pageBreak, so the time a listing took can leave out the reader
+    private long waitNanos;
+
+    public LedgerPrinter(OutputStream out) {
+        this.out = out;
+    }
+
+    // Starts a listing that skips offset rows and prints at most limit of the rest.
+    // limit and pageSize of 0 mean no limit and no pages.
+    public void begin(long offset, long limit, long pageSize, PageBreak pageBreak) {
+        this.offset = offset;
+        this.limit = limit > 0 ? limit : Long.MAX_VALUE;
+        this.pageSize = pageSize;
+        this.pageBreak = pageBreak;
+        seen = 0;
+        printed = 0;
+        stopped = false;
+    }
+
+    // Starts a listing with every row and no pages
+    public void begin() {
+        begin(0, 0, 0, null);
+    }
+
+    public void header() {
+        line.setLength(0);
+        pad(line, "Date", DATE_WIDTH).append("  ");
+        pad(line, "Time", TIME_WIDTH).append("  ");
+        pad(line, "Description", DESCRIPTION_WIDTH).append("  ");
+        pad(line, "Vendor", VENDOR_WIDTH).append("  ");
+        padLeft(line, "Amount", AMOUNT_WIDTH);
+        writeLine();
+    }
+
+    // Offers one row to the listing. Returns false once the listing is over, so the caller
+    // can stop looking for more rows.
+    public boolean row(TransactionStore store, int row) {
+        if (stopped) {
+            return false;
+        }
+        if (seen++ < offset) {
+            return true;
+        }
+        if (store != cellStore) {
+            cellStore = store;
+            descriptionCells = new byte[0][];
+            vendorCells = new byte[0][];
+        }
+        int descriptionId = store.getDescriptionId(row);
+        if (descriptionId >= descriptionCells.length) {
+            descriptionCells = Arrays.copyOf(descriptionCells, Math.max(descriptionId + 1, descriptionCells.length * 2));
+        }
+        byte[] description = descriptionCells[descriptionId];
+        if (description == null) {
+            description = encodeCell(store.getDescription(row), DESCRIPTION_WIDTH);
+            descriptionCells[descriptionId] = description;
+        }
+        int vendorId = store.getVendorId(row);
+        if (vendorId >= vendorCells.length) {
+            vendorCells = Arrays.copyOf(vendorCells, Math.max(vendorId + 1, vendorCells.length * 2));
+        }
+        byte[] vendor = vendorCells[vendorId];
+        if (vendor == null) {
+            vendor = encodeCell(store.getVendor(row), VENDOR_WIDTH);
+            vendorCells[vendorId] = vendor;
+        }
+
+        if (length + FIXED_ROW_BYTES + description.length + vendor.length > buffer.length) {
+            flush();
+        }
+        writeDate(store.getEpochDay(row));
+        writeTime(store.getSecondOfDay(row));
+        System.arraycopy(description, 0, buffer, length, description.length);
+        length += description.length;
+        System.arraycopy(vendor, 0, buffer, length, vendor.length);
+        length += vendor.length;
+        writeAmount(store.getAmountCents(row));
+        System.arraycopy(newline, 0, buffer, length, newline.length);
+        length += newline.length;
+        printed++;
+
+        if (printed == limit) {
+            stopped = true;
+        } else if (pageSize > 0 && printed % pageSize == 0 && pageBreak != null) {
+            flush();
+            long started = System.nanoTime();
+            stopped = !pageBreak.more();
+            waitNanos += System.nanoTime() - started;
+        }
+        return !stopped;
+    }
+
+    // Rows offered so far, including the ones skipped by the offset
+    public long getSeen() {
+        return seen;
+    }
+
+    public long getPrinted() {
+        return printed;
+    }
+
+    // Total time every listing so far spent waiting for an answer at a page break
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public void println(String text) {
+        line.setLength(0);
+        line.append(text);
+        writeLine();
+    }
+
+    public void flush() {
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+            length = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeDate(int epochDay) {
+        if (epochDay != cachedEpochDay) {
+            line.setLength(0);
+            TransactionFormat.appendDate(line, epochDay);
+            for (int i = 0; i < DATE_WIDTH; i++) {
+                dateCell[i] = (byte) line.charAt(i);
+            }
+            cachedEpochDay = epochDay;
+        }
+        System.arraycopy(dateCell, 0, buffer, length, DATE_WIDTH);
+        length += DATE_WIDTH;
+        buffer[length++] = ' ';
+        buffer[length++] = ' ';
+    }
+
+    // HH:mm:ss
+    private void writeTime(int secondOfDay) {
+        writeTwoDigits(secondOfDay / 3600);
+        buffer[length++] = ':';
+        writeTwoDigits(secondOfDay / 60 % 60);
+        buffer[length++] = ':';
+        writeTwoDigits(secondOfDay % 60);
+        buffer[length++] = ' ';
+        buffer[length++] = ' ';
+    }
+
+    private void writeTwoDigits(int value) {
+        buffer[length++] = (byte) ('0' + value / 10);
+        buffer[length++] = (byte) ('0' + value % 10);
+    }
+
+    // Right-aligned, in the same [-]units.cc form as Money.append
+    private void writeAmount(long cents) {
+        int start = digits.length;
+        // Work on the negative value so Long.MIN_VALUE doesn't overflow
+        long negativeCents = cents < 0 ? cents : -cents;
+        long fraction = -(negativeCents % 100);
+        long units = -(negativeCents / 100);
+        digits[--start] = (byte) ('0' + fraction % 10);
+        digits[--start] = (byte) ('0' + fraction / 10);
+        digits[--start] = '.';
+        do {
+            digits[--start] = (byte) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0);
+        if (cents < 0) {
+            digits[--start] = '-';
+        }
+        int count = digits.length - start;
+        for (int i = count; i < AMOUNT_WIDTH; i++) {
+            buffer[length++] = ' ';
+        }
+        System.arraycopy(digits, start, buffer, length, count);
+        length += count;
+    }
+
+    // A description or vendor padded to its column, with the two spaces before the next column
+    private byte[] encodeCell(String text, int width) {
+        line.setLength(0);
+        pad(line, text, width).append("  ");
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeLine() {
+        line.append(System.lineSeparator());
+        int count = line.length();
+        if (count * 3 > buffer.length) {
+            writeBytes(line.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (length + count * 3 > buffer.length) {
+            flush();
+        }
+        if (chars.length < count) {
+            chars = new char[Math.max(count, chars.length * 2)];
+        }
+        line.getChars(0, count, chars, 0);
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+            if (c >= 0x80) {
+                // Not plain ASCII, let the encoder deal with it
+                writeBytes(line.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer[length++] = (byte) c;
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        if (length + bytes.length > buffer.length) {
+            flush();
+        }
+        if (bytes.length > buffer.length) {
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    // Left-aligned in width characters, cut short with ... if it doesn't fit
+    private static StringBuilder pad(StringBuilder out, String text, int width) {
+        if (text.length() > width) {
+            return out.append(text, 0, width - 3).append("...");
+        }
+        out.append(text);
+        for (int i = text.length(); i < width; i++) {
+            out.append(' ');
+        }
+        return out;
+    }
+
+    private static StringBuilder padLeft(StringBuilder out, CharSequence text, int width) {
+        for (int i = text.length(); i < width; i++) {
+            out.append(' ');
+        }
+        return out.append(text);
+    }
+}
@@ -0,0 +1,497 @@
+package com.pluralsight;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// A small HTTP/JSON API in front of a ConcurrentLedger, on the JDK's built-in server.
+//
+//   POST /transactions        add a transaction; form fields date, time, description, vendor, amount
+//   GET  /transactions        every transaction, newest first
+//   GET  /deposits            deposits only, newest first
+//   GET  /payments            payments only, newest first
+//   GET  /transactions?from=yyyy-MM-dd&to=yyyy-MM-dd   a date range, oldest first
+//   GET  /vendors/<name>      transactions of one vendor, ignoring case
+//   GET  /vendors?contains=x  transactions of every vendor whose name contains x
+//   GET  /reports/<period>    totals for month-to-date, previous-month, year-to-date or previous-year
+//   GET  /reports?from=..&to=..   totals for any date range
+//   GET  /analytics?by=..     totals grouped by vendor, month, vendor-month or balance (a running
+//                             balance by month); from and to default to this year, top=n keeps
+//                             the n vendors that spent the most (in each month for vendor-month)
+//   GET  /metrics             the app's metrics as plain text, one per line
+//
+// Lists take offset and limit (default 100, at most 10,000) and are written to the client row by
+// row, so a big page is never built up in memory. Every request reads one snapshot of the ledger,
+// so a page is consistent even while transactions are being added.
+public class LedgerServer {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10_000;
+    // How long each request takes, from reading the path to the end of the response
+    private static final LatencyRecorder REQUEST_LATENCY = Metrics.latency("http.request");
+
+    private final ConcurrentLedger ledger;
+    private final LedgerWriter writer;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // writer may be null, in which case the API is read-only
+    public LedgerServer(ConcurrentLedger ledger, LedgerWriter writer, int port, int threads) throws IOException {
+        this.ledger = ledger;
+        this.writer = writer;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newExecutor(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests and waits up to delaySeconds for the ones in progress
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // One virtual thread per request when the JVM has them (Java 21 and later), so thousands of
+    // slow clients don't need thousands of platform threads. Otherwise a fixed pool of threads.
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "ledger-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            if (path.equals("/transactions") && method.equals("POST")) {
+                addTransaction(exchange);
+            } else if (!method.equals("GET")) {
+                sendError(exchange, 405, "Method not allowed");
+            } else if (path.equals("/transactions")) {
+                if (query.containsKey("from") || query.containsKey("to")) {
+                    listDateRange(exchange, query);
+                } else {
+                    listNewestFirst(exchange, query, 0);
+                }
+            } else if (path.equals("/deposits")) {
+                listNewestFirst(exchange, query, 1);
+            } else if (path.equals("/payments")) {
+                listNewestFirst(exchange, query, -1);
+            } else if (path.startsWith("/vendors/") && path.length() > "/vendors/".length()) {
+                LedgerSnapshot snapshot = ledger.snapshot();
+                listRows(exchange, query, snapshot, snapshot.rowsFor(path.substring("/vendors/".length())));
+            } else if (path.equals("/vendors") && query.containsKey("contains")) {
+                LedgerSnapshot snapshot = ledger.snapshot();
+                listRows(exchange, query, snapshot, snapshot.rowsContaining(query.get("contains")));
+            } else if (path.equals("/reports")) {
+                sendTotals(exchange, parseDate(query, "from"), parseDate(query, "to"));
+            } else if (path.startsWith("/reports/")) {
+                sendReport(exchange, path.substring("/reports/".length()));
+            } else if (path.equals("/analytics")) {
+                sendAnalytics(exchange, query);
+            } else if (path.equals("/metrics")) {
+                sendText(exchange, Metrics.dump());
+            } else {
+                sendError(exchange, 404, "Not found");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            // The client went away in the middle of a response; nothing left to tell it
+        } catch (RuntimeException e) {
+            // A bug rather than a bad request. Tell the client unless a response is already under way.
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 500, "Internal server error");
+            }
+        } finally {
+            exchange.close();
+            if (Metrics.ENABLED) {
+                REQUEST_LATENCY.record(System.nanoTime() - started);
+            }
+        }
+    }
+
+    private void addTransaction(HttpExchange exchange) throws IOException {
+        if (writer == null) {
+            sendError(exchange, 503, "The ledger is read-only");
+            return;
+        }
+        Map<String, String> form;
+        try (InputStream body = exchange.getRequestBody()) {
+            form = parseForm(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        LocalDate date = form.containsKey("date") ? parseDate(form, "date") : LocalDate.now();
+        LocalTime time;
+        try {
+            time = form.containsKey("time") ? LocalTime.parse(form.get("time")) : LocalTime.now();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("time must be HH:mm:ss");
+        }
+        time = time.truncatedTo(ChronoUnit.SECONDS);
+        String description = requireField(form, "description");
+        String vendor = requireField(form, "vendor");
+        long cents = Money.parseCents(requireField(form, "amount"));
+        if (cents == Money.INVALID) {
+            throw new IllegalArgumentException("amount must be a number like 12.34 or -12.34");
+        }
+
+        // The file first, so a transaction the API has confirmed is always in the file
+        Transaction transaction = Transaction.ofCents(date, time, description, vendor, cents);
+        writer.append(TransactionFormat.appendLine(new StringBuilder(64), transaction).toString());
+        int row = ledger.append(transaction);
+
+        StringBuilder json = new StringBuilder(160);
+        appendTransaction(json, row, (int) date.toEpochDay(), time.toSecondOfDay(), cents, description, vendor);
+        send(exchange, 201, json.toString());
+    }
+
+    // sign is 1 for deposits, -1 for payments and 0 for everything
+    private void listNewestFirst(HttpExchange exchange, Map<String, String> query, int sign) throws IOException {
+        LedgerSnapshot snapshot = ledger.snapshot();
+        int offset = parseInt(query, "offset", 0, Integer.MAX_VALUE);
+        int limit = parseInt(query, "limit", DEFAULT_LIMIT, MAX_LIMIT);
+
+        try (Writer out = startStream(exchange)) {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"offset\":").append(offset).append(",\"limit\":").append(limit);
+            if (sign == 0) {
+                json.append(",\"total\":").append(snapshot.size());
+            }
+            json.append(",\"transactions\":[");
+            int skipped = 0;
+            int newest = snapshot.size() - 1;
+            if (sign == 0) {
+                // Every row counts, so the page starts offset positions from the end
+                newest = (int) Math.max(-1, (long) newest - offset);
+                skipped = offset;
+            }
+            int written = 0;
+            boolean more = false;
+            for (int position = newest; position >= 0; position--) {
+                int row = snapshot.getRowAt(position);
+                if (sign != 0 && (snapshot.getAmountCents(row) > 0) != (sign > 0)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                if (written == limit) {
+                    more = true;
+                    break;
+                }
+                writeRow(out, json, snapshot, row, written++);
+            }
+            json.append("],\"more\":").append(more).append('}');
+            out.append(json);
+        }
+    }
+
+    private void listDateRange(HttpExchange exchange, Map<String, String> query) throws IOException {
+        LedgerSnapshot snapshot = ledger.snapshot();
+        LocalDate from = parseDate(query, "from");
+        LocalDate to = parseDate(query, "to");
+        int offset = parseInt(query, "offset", 0, Integer.MAX_VALUE);
+        int limit = parseInt(query, "limit", DEFAULT_LIMIT, MAX_LIMIT);
+
+        // The range is found with two binary searches, like filterTransactionsByDate
+        int start = snapshot.startOf((int) from.toEpochDay());
+        int end = Math.max(start, snapshot.endOf((int) to.toEpochDay()));
+        int first = (int) Math.min((long) start + offset, end);
+        int last = (int) Math.min((long) first + limit, end);
+
+        try (Writer out = startStream(exchange)) {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"from\":\"").append(from).append("\",\"to\":\"").append(to)
+                    .append("\",\"offset\":").append(offset).append(",\"limit\":").append(limit)
+                    .append(",\"total\":").append(end - start).append(",\"transactions\":[");
+            for (int position = first; position < last; position++) {
+                writeRow(out, json, snapshot, snapshot.getRowAt(position), position - first);
+            }
+            json.append("],\"more\":").append(last < end).append('}');
+            out.append(json);
+        }
+    }
+
+    private void listRows(HttpExchange exchange, Map<String, String> query, LedgerSnapshot snapshot, IntList rows)
+            throws IOException {
+        int offset = parseInt(query, "offset", 0, Integer.MAX_VALUE);
+        int limit = parseInt(query, "limit", DEFAULT_LIMIT, MAX_LIMIT);
+        int first = Math.min(offset, rows.size());
+        int last = (int) Math.min((long) first + limit, rows.size());
+
+        try (Writer out = startStream(exchange)) {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"offset\":").append(offset).append(",\"limit\":").append(limit)
+                    .append(",\"total\":").append(rows.size()).append(",\"transactions\":[");
+            for (int i = first; i < last; i++) {
+                writeRow(out, json, snapshot, rows.get(i), i - first);
+            }
+            json.append("],\"more\":").append(last < rows.size()).append('}');
+            out.append(json);
+        }
+    }
+
+    // The same periods as the Reports menu
+    private void sendReport(HttpExchange exchange, String period) throws IOException {
+        LocalDate today = LocalDate.now();
+        switch (period) {
+            case "month-to-date":
+                sendTotals(exchange, today.withDayOfMonth(1), today);
+                break;
+            case "previous-month":
+                LocalDate lastMonth = today.minusMonths(1);
+                sendTotals(exchange, lastMonth.withDayOfMonth(1), lastMonth.withDayOfMonth(lastMonth.lengthOfMonth()));
+                break;
+            case "year-to-date":
+                sendTotals(exchange, today.withDayOfYear(1), today);
+                break;
+            case "previous-year":
+                LocalDate lastYear = today.minusYears(1);
+                sendTotals(exchange, lastYear.withDayOfYear(1), lastYear.withMonth(12).withDayOfMonth(31));
+                break;
+            default:
+                sendError(exchange, 404, "Unknown report " + period);
+                break;
+        }
+    }
+
+    private void sendTotals(HttpExchange exchange, LocalDate from, LocalDate to) throws IOException {
+        PeriodTotals totals = ledger.snapshot().totalsBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"from\":\"").append(from).append("\",\"to\":\"").append(to).append('"');
+        appendTotals(json, totals).append('}');
+        send(exchange, 200, json.toString());
+    }
+
+    private void sendAnalytics(HttpExchange exchange, Map<String, String> query) throws IOException {
+        LocalDate today = LocalDate.now();
+        LocalDate from = query.containsKey("from") ? parseDate(query, "from") : today.withDayOfYear(1);
+        LocalDate to = query.containsKey("to") ? parseDate(query, "to") : today;
+        String by = query.getOrDefault("by", "vendor");
+        int top = parseInt(query, "top", 0, MAX_LIMIT);
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        List<Analytics.Source> sources = List.of(Analytics.of(ledger.snapshot()));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Analytics.Group> groups;
+        switch (by) {
+            case "vendor":
+                groups = Analytics.top(Analytics.groupBy(sources, Analytics.Dimension.VENDOR, fromDay, toDay, cores),
+                        Analytics.Measure.SPENDING, top == 0 ? Integer.MAX_VALUE : top);
+                break;
+            case "month":
+                groups = Analytics.groupBy(sources, Analytics.Dimension.MONTH, fromDay, toDay, cores);
+                break;
+            case "vendor-month":
+                groups = Analytics.top(Analytics.groupBy(sources, Analytics.Dimension.VENDOR_MONTH, fromDay, toDay, cores),
+                        Analytics.Measure.SPENDING, top == 0 ? Integer.MAX_VALUE : top);
+                break;
+            case "balance":
+                groups = Analytics.runningBalance(sources, fromDay, toDay, cores);
+                break;
+            default:
+                throw new IllegalArgumentException("by must be vendor, month, vendor-month or balance");
+        }
+
+        StringBuilder json = new StringBuilder(256 + groups.size() * 160);
+        json.append("{\"from\":\"").append(from).append("\",\"to\":\"").append(to)
+                .append("\",\"by\":\"").append(by).append("\",\"groups\":[");
+        for (int i = 0; i < groups.size(); i++) {
+            Analytics.Group group = groups.get(i);
+            json.append(i == 0 ? "{" : ",{");
+            boolean first = true;
+            if (group.getVendor() != null) {
+                appendString(json.append("\"vendor\":"), group.getVendor());
+                first = false;
+            }
+            if (group.getMonth() != Analytics.NO_MONTH) {
+                json.append(first ? "" : ",").append("\"month\":\"").append(Rollups.monthName(group.getMonth())).append('"');
+            }
+            appendTotals(json, group.getTotals());
+            if (by.equals("balance")) {
+                Money.append(json.append(",\"balance\":"), group.getBalanceCents());
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        send(exchange, 200, json.toString());
+    }
+
+    // ,"deposits":..,"depositCount":..,"payments":..,"paymentCount":..,"net":..
+    private static StringBuilder appendTotals(StringBuilder json, PeriodTotals totals) {
+        Money.append(json.append(",\"deposits\":"), totals.getDepositCents())
+                .append(",\"depositCount\":").append(totals.getDepositCount());
+        Money.append(json.append(",\"payments\":"), totals.getPaymentCents())
+                .append(",\"paymentCount\":").append(totals.getPaymentCount());
+        return Money.append(json.append(",\"net\":"), totals.getNetCents());
+    }
+
+    // Adds one row to the page, and hands what has been built so far to the client every so often
+    private static void writeRow(Writer out, StringBuilder json, LedgerSnapshot snapshot, int row, int index)
+            throws IOException {
+        if (index > 0) {
+            json.append(',');
+        }
+        appendTransaction(json, row, snapshot.getEpochDay(row), snapshot.getSecondOfDay(row),
+                snapshot.getAmountCents(row), snapshot.getDescription(row), snapshot.getVendor(row));
+        if (json.length() >= 8192) {
+            out.append(json);
+            json.setLength(0);
+        }
+    }
+
+    private static void appendTransaction(StringBuilder json, int row, int epochDay, int secondOfDay, long cents,
+                                          String description, String vendor) {
+        json.append("{\"id\":").append(row).append(",\"date\":\"");
+        TransactionFormat.appendDate(json, epochDay).append("\",\"time\":\"");
+        TransactionFormat.appendTime(json, secondOfDay).append("\",\"description\":");
+        appendString(json, description).append(",\"vendor\":");
+        appendString(json, vendor).append(",\"amount\":");
+        Money.append(json, cents).append('}');
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    // Sends the headers with no length, so the body goes out in chunks as it is written
+    private static Writer startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16384);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendText(HttpExchange exchange, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, appendString(new StringBuilder("{\"error\":"), message).append('}').toString());
+    }
+
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> values = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return values;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            values.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static String requireField(Map<String, String> form, String name) {
+        String value = form.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        // A | or a line break would split the line in the transactions file
+        if (value.indexOf('|') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException(name + " can't contain | or line breaks");
+        }
+        return value.trim();
+    }
+
+    private static LocalDate parseDate(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException(name + " is required (yyyy-MM-dd)");
+        }
+        LocalDate date;
+        try {
+            date = LocalDate.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a date like 2023-04-29");
+        }
+        // The transactions file has four-digit years, so a date outside them couldn't be read back
+        if (!TransactionFormat.isWritable(date)) {
+            throw new IllegalArgumentException(name + " must be a date from 0000-01-01 to 9999-12-31");
+        }
+        return date;
+    }
+
+    private static int parseInt(Map<String, String> query, String name, int defaultValue, int max) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number < 0) {
+                throw new IllegalArgumentException(name + " can't be negative");
+            }
+            return Math.min(number, max);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Map;
+
+// The state of a ConcurrentLedger at one moment. Nothing in it changes after it is published,
+// so any number of threads can read it at once, and a report built from it is consistent
+// even while rows are being added to the ledger.
+public final class LedgerSnapshot {
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private final int size;
+    private final int[] epochDays;
+    private final int[] secondsOfDay;
+    private final long[] amountCents;
+    private final int[] vendorIds;
+    private final int[] descriptionIds;
+    private final String[] vendorNames;
+    private final String[] descriptionNames;
+    private final long[] baseKeys;
+    private final int[] baseRows;
+    private final int baseSize;
+    private final long[] deltaKeys;
+    private final int[] deltaRows;
+    private final Map<String, Integer> keyIds;
+    private final String[] keyNames;
+    private final int keyCount;
+    private final int[][] postings;
+
+    LedgerSnapshot(int size, int[] epochDays, int[] secondsOfDay, long[] amountCents, int[] vendorIds,
+                   int[] descriptionIds, String[] vendorNames, String[] descriptionNames,
+                   long[] baseKeys, int[] baseRows, int baseSize, long[] deltaKeys, int[] deltaRows,
+                   Map<String, Integer> keyIds, String[] keyNames, int keyCount, int[][] postings) {
+        this.size = size;
+        this.epochDays = epochDays;
+        this.secondsOfDay = secondsOfDay;
+        this.amountCents = amountCents;
+        this.vendorIds = vendorIds;
+        this.descriptionIds = descriptionIds;
+        this.vendorNames = vendorNames;
+        this.descriptionNames = descriptionNames;
+        this.baseKeys = baseKeys;
+        this.baseRows = baseRows;
+        this.baseSize = baseSize;
+        this.deltaKeys = deltaKeys;
+        this.deltaRows = deltaRows;
+        this.keyIds = keyIds;
+        this.keyNames = keyNames;
+        this.keyCount = keyCount;
+        this.postings = postings;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getEpochDay(int row) {
+        return epochDays[check(row)];
+    }
+
+    public int getSecondOfDay(int row) {
+        return secondsOfDay[check(row)];
+    }
+
+    public long getAmountCents(int row) {
+        return amountCents[check(row)];
+    }
+
+    public String getVendor(int row) {
+        return vendorNames[vendorIds[check(row)]];
+    }
+
+    public String getDescription(int row) {
+        return descriptionNames[descriptionIds[check(row)]];
+    }
+
+    // Vendors are numbered in the order they were first seen, so rows can be grouped by vendor
+    // without comparing names
+    public int getVendorId(int row) {
+        return vendorIds[check(row)];
+    }
+
+    public String getVendorName(int vendorId) {
+        return vendorNames[vendorId];
+    }
+
+    // A copy of the row as a Transaction
+    public Transaction get(int row) {
+        check(row);
+        return Transaction.ofCents(LocalDate.ofEpochDay(epochDays[row]), LocalTime.ofSecondOfDay(secondsOfDay[row]),
+                getDescription(row), getVendor(row), amountCents[row]);
+    }
+
+    // Row number at a position in date and time order; position 0 is the oldest transaction.
+    // The order is the ledger's base and delta merged, base first on equal keys.
+    public int getRowAt(int position) {
+        check(position);
+        int deltaSize = deltaKeys.length;
+        if (deltaSize == 0) {
+            return baseRows[position];
+        }
+        // Find how many of the first position entries come from the base
+        int low = Math.max(0, position - deltaSize);
+        int high = Math.min(position, baseSize);
+        while (low < high) {
+            int fromBase = (low + high) >>> 1;
+            if (baseKeys[fromBase] <= deltaKeys[position - fromBase - 1]) {
+                low = fromBase + 1;
+            } else {
+                high = fromBase;
+            }
+        }
+        int fromDelta = position - low;
+        if (low < baseSize && (fromDelta >= deltaSize || baseKeys[low] <= deltaKeys[fromDelta])) {
+            return baseRows[low];
+        }
+        return deltaRows[fromDelta];
+    }
+
+    // First position whose date is on or after epochDay
+    public int startOf(int epochDay) {
+        long key = (long) epochDay * SECONDS_PER_DAY;
+        return firstAtOrAfter(baseKeys, baseSize, key) + firstAtOrAfter(deltaKeys, deltaKeys.length, key);
+    }
+
+    // First position whose date is after epochDay
+    public int endOf(int epochDay) {
+        long key = (long) (epochDay + 1) * SECONDS_PER_DAY;
+        return firstAtOrAfter(baseKeys, baseSize, key) + firstAtOrAfter(deltaKeys, deltaKeys.length, key);
+    }
+
+    // Rows whose vendor matches ignoring case, in the order they were added
+    public IntList rowsFor(String vendor) {
+        Integer key = keyIds.get(VendorIndex.fold(vendor));
+        IntList found = new IntList();
+        if (key != null && key < keyCount) {
+            addPostings(found, key);
+        }
+        return found;
+    }
+
+    // Rows whose vendor contains text anywhere, ignoring case
+    public IntList rowsContaining(String text) {
+        String folded = VendorIndex.fold(text);
+        IntList found = new IntList();
+        for (int key = 0; key < keyCount; key++) {
+            if (keyNames[key].contains(folded)) {
+                addPostings(found, key);
+            }
+        }
+        found.sort();
+        return found;
+    }
+
+    // Deposit and payment totals of every day from fromDay to toDay, both included
+    public PeriodTotals totalsBetween(int fromDay, int toDay) {
+        long from = (long) fromDay * SECONDS_PER_DAY;
+        long to = (long) (toDay + 1) * SECONDS_PER_DAY;
+        PeriodTotals totals = new PeriodTotals();
+        addAmounts(totals, baseRows, firstAtOrAfter(baseKeys, baseSize, from), firstAtOrAfter(baseKeys, baseSize, to));
+        addAmounts(totals, deltaRows, firstAtOrAfter(deltaKeys, deltaKeys.length, from),
+                firstAtOrAfter(deltaKeys, deltaKeys.length, to));
+        return totals;
+    }
+
+    private void addAmounts(PeriodTotals totals, int[] rows, int from, int to) {
+        for (int i = from; i < to; i++) {
+            totals.add(amountCents[rows[i]]);
+        }
+    }
+
+    // A posting array holds the rows of its vendor in order, then rows added after this snapshot
+    // or ConcurrentLedger.NO_ROW, so the rows that belong to this snapshot are all those below size.
+    private void addPostings(IntList found, int key) {
+        int[] rows = postings[key];
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rows[middle] < size) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = 0; i < low; i++) {
+            found.add(rows[i]);
+        }
+    }
+
+    private static int firstAtOrAfter(long[] keys, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,318 @@
+package com.pluralsight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps the transactions file open for the whole session and appends lines to it.
+// Appends use group commit: lines from every thread go into a shared buffer, and whichever
+// thread finds no write in progress writes the whole buffer (and fsyncs it, depending on the
+// policy) on behalf of everyone waiting. An append returns once its line is in the file.
+//
+// With a WriteAheadLog, each batch is written to the log before the CSV. The fsync policy then
+// applies to the log, which is enough to repair the CSV after a crash, so the CSV itself is only
+// fsynced by sync and close.
+public class LedgerWriter implements Closeable {
+
+    public static final String HEADER = "date|time|description|vendor|amount";
+
+    public enum FsyncPolicy {
+        // fsync every batch before the appends in it return
+        EVERY_WRITE,
+        // fsync in the background every intervalMillis
+        INTERVAL,
+        // fsync only when the writer is closed
+        ON_EXIT
+    }
+
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService syncer;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+
+    // Lines waiting to be written, and a second buffer to swap in while they are
+    private byte[] pending = new byte[8192];
+    private int pendingLength;
+    private byte[] spare = new byte[8192];
+    // The same lines as log records, when there is a log
+    private byte[] pendingLog = new byte[8192];
+    private int pendingLogLength;
+    private int pendingLogLines;
+    private byte[] spareLog = new byte[8192];
+
+    private long appendedCount;
+    private long linesAppended;
+    // Every byte this writer added to the file, the header or newline it started with included
+    private long bytesWritten;
+    private long writtenCount;
+    private boolean writing;
+    private boolean dirty;
+    private boolean closed;
+    private IOException failure;
+
+    public LedgerWriter(Path path, FsyncPolicy policy, long intervalMillis) throws IOException {
+        this(path, policy, intervalMillis, null);
+    }
+
+    public LedgerWriter(Path path, FsyncPolicy policy, long intervalMillis, WriteAheadLog log) throws IOException {
+        this.log = log;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.policy = policy;
+        startNewLine(path);
+
+        if (policy == FsyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    // Appends one line (without its newline) and waits until it has been written
+    public void append(String line) throws IOException {
+        long started = System.nanoTime();
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] record = log == null ? null : WriteAheadLog.encode(bytes, bytes.length - 1);
+        enqueue(bytes, bytes.length, record, 1);
+        latencies.record(System.nanoTime() - started);
+    }
+
+    // Appends many lines at once, such as an import, and waits until they have been written.
+    // lines holds length bytes of whole lines, each ending in a newline. They go out in one
+    // batch, with one write to the log and one to the CSV.
+    public void appendLines(byte[] lines, int length) throws IOException {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (lines[i] == '\n') {
+                count++;
+            }
+        }
+        byte[] records = log == null ? null : WriteAheadLog.encodeLines(lines, length);
+        enqueue(lines, length, records, count);
+    }
+
+    // Adds the lines and their log records (null without a log) to the next batch and waits
+    // until that batch has been written
+    private void enqueue(byte[] bytes, int length, byte[] records, int lineCount) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Ledger writer is closed");
+            }
+            if (failure != null) {
+                throw new IOException("Ledger writer failed earlier", failure);
+            }
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+            }
+            System.arraycopy(bytes, 0, pending, pendingLength, length);
+            pendingLength += length;
+            if (records != null) {
+                if (pendingLogLength + records.length > pendingLog.length) {
+                    pendingLog = Arrays.copyOf(pendingLog, Math.max(pendingLog.length * 2, pendingLogLength + records.length));
+                }
+                System.arraycopy(records, 0, pendingLog, pendingLogLength, records.length);
+                pendingLogLength += records.length;
+                pendingLogLines += lineCount;
+            }
+            linesAppended += lineCount;
+            long sequence = ++appendedCount;
+
+            while (writtenCount < sequence) {
+                if (failure != null) {
+                    throw new IOException("Could not write to the ledger", failure);
+                }
+                if (writing) {
+                    // Someone else is writing, our line goes out with the next batch
+                    written.awaitUninterruptibly();
+                } else {
+                    writeBatch();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+
+    // Lines appended this session, by append and appendLines together
+    public long getLineCount() {
+        lock.lock();
+        try {
+            return linesAppended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bytes this writer has added to the end of the file so far
+    public long getBytesWritten() {
+        lock.lock();
+        try {
+            return bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes everything pending and fsyncs it
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                written.awaitUninterruptibly();
+            }
+            if (pendingLength > 0) {
+                writeBatch();
+            }
+            if (dirty) {
+                if (log != null) {
+                    log.force();
+                }
+                channel.force(false);
+                dirty = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Called with the lock held. Writes the pending buffer with the lock released so that
+    // other threads can keep adding to the next batch.
+    private void writeBatch() {
+        byte[] batch = pending;
+        int length = pendingLength;
+        long batchEnd = appendedCount;
+        pending = spare;
+        pendingLength = 0;
+        byte[] logBatch = pendingLog;
+        int logLength = pendingLogLength;
+        int logLines = pendingLogLines;
+        pendingLog = spareLog;
+        pendingLogLength = 0;
+        pendingLogLines = 0;
+        writing = true;
+
+        lock.unlock();
+        IOException error = null;
+        try {
+            if (log != null) {
+                // The log goes first, so whatever reaches the CSV is in the log as well
+                log.append(logBatch, logLength, logLines, length);
+                if (policy == FsyncPolicy.EVERY_WRITE) {
+                    log.force();
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (policy == FsyncPolicy.EVERY_WRITE && log == null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+
+        spare = batch;
+        spareLog = logBatch;
+        writing = false;
+        if (error != null) {
+            failure = error;
+        } else {
+            writtenCount = batchEnd;
+            bytesWritten += length;
+            dirty = policy != FsyncPolicy.EVERY_WRITE || log != null;
+        }
+        written.signalAll();
+    }
+
+    private void syncQuietly() {
+        try {
+            lock.lock();
+            try {
+                if (!dirty || writing || closed) {
+                    return;
+                }
+                dirty = false;
+            } finally {
+                lock.unlock();
+            }
+            if (log != null) {
+                log.force();
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Error: Could not sync the ledger file!");
+        }
+    }
+
+    // New files get a header line, since the loader skips the first line. A file whose
+    // last line has no newline gets one, so the next append starts on a line of its own.
+    private void startNewLine(Path path) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.wrap((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            while (header.hasRemaining()) {
+                bytesWritten += channel.write(header);
+            }
+            return;
+        }
+        ByteBuffer last = ByteBuffer.allocate(1);
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            reader.read(last, size - 1);
+        }
+        if (last.get(0) != '\n') {
+            bytesWritten += channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.pluralsight;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters, latency histograms and gauges for watching a running tracker: rows loaded, lines
+// rejected, how long loads, sorts, appends and each report take, and how big the store is.
+// Every metric has a dotted name in one registry, which is printed by M) Metrics in the main
+// menu and GET /metrics on the HTTP API, and shown as attributes of the MBean
+// com.pluralsight:type=Metrics in jconsole or any other JMX client.
+//
+// Latencies go into a LatencyRecorder, so recording one is a few atomic adds. Turned off with
+// -Dtracker.metrics=false: ENABLED is a constant, so the JIT drops every recording wrapped in
+// if (Metrics.ENABLED), the nanoTime calls around it included.
+public class Metrics {
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("tracker.metrics", "true"));
+
+    // Counts something that only goes up. Safe to add to from many threads at once.
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // Counter, LatencyRecorder or LongSupplier (a gauge), sorted by name
+    private static final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    private static boolean registered;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static LatencyRecorder latency(String name) {
+        return (LatencyRecorder) metrics.computeIfAbsent(name, key -> new LatencyRecorder());
+    }
+
+    // Shows a recorder that something else keeps, such as the ledger writer's append latencies
+    public static void register(String name, LatencyRecorder recorder) {
+        metrics.put(name, recorder);
+    }
+
+    // A value that is read each time the metrics are shown, such as the size of the store
+    public static void gauge(String name, LongSupplier value) {
+        metrics.put(name, value);
+    }
+
+    // Every metric on its own line, sorted by name
+    public static String dump() {
+        if (!ENABLED) {
+            return "Metrics are turned off (-Dtracker.metrics=false)";
+        }
+        StringBuilder out = new StringBuilder(1024);
+        for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+            out.append(metric.getKey()).append(": ");
+            Object value = metric.getValue();
+            if (value instanceof LatencyRecorder) {
+                out.append(((LatencyRecorder) value).summary());
+            } else {
+                out.append(String.format("%,d", valueOf(value)));
+            }
+            out.append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+
+    // Makes the metrics visible over JMX. Does nothing if metrics are off or it was done already.
+    public static synchronized void registerMBean() {
+        if (!ENABLED || registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                    new ObjectName("com.pluralsight:type=Metrics"));
+            registered = true;
+        } catch (JMException e) {
+            System.out.println("Error: Could not show the metrics over JMX!");
+        }
+    }
+
+    private static long valueOf(Object metric) {
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        }
+        return ((LongSupplier) metric).getAsLong();
+    }
+
+    // Each counter and gauge is one attribute. Each latency is four: name.count and the
+    // p50, p99 and max in microseconds.
+    private static class MetricsMBean implements DynamicMBean {
+
+        private static final String[] LATENCY_FIELDS = {"count", "p50Micros", "p99Micros", "maxMicros"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object metric = metrics.get(attribute);
+            if (metric != null && !(metric instanceof LatencyRecorder)) {
+                return valueOf(metric);
+            }
+            int dot = attribute.lastIndexOf('.');
+            metric = dot > 0 ? metrics.get(attribute.substring(0, dot)) : null;
+            if (!(metric instanceof LatencyRecorder)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            LatencyRecorder recorder = (LatencyRecorder) metric;
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return recorder.getCount();
+                case "p50Micros":
+                    return recorder.percentile(0.50) / 1000;
+                case "p99Micros":
+                    return recorder.percentile(0.99) / 1000;
+                case "maxMicros":
+                    return recorder.getMax() / 1000;
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            // There are no operations, only attributes
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+                if (metric.getValue() instanceof LatencyRecorder) {
+                    for (String field : LATENCY_FIELDS) {
+                        attributes.add(new MBeanAttributeInfo(metric.getKey() + "." + field, "long",
+                                metric.getKey() + " " + field, true, false, false));
+                    }
+                } else {
+                    attributes.add(new MBeanAttributeInfo(metric.getKey(), "long", metric.getKey(),
+                            true, false, false));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Financial tracker metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
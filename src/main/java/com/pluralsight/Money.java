@@ -0,0 +1,135 @@
+package com.pluralsight;
+
+import java.nio.ByteBuffer;
+
+// Amounts of money as a long number of cents, so sums are exact and nothing gets boxed.
+// Parsing and formatting work on bytes and StringBuilders directly without making
+// intermediate Strings or BigDecimals.
+public final class Money {
+
+    // Returned by the parse methods when the text isn't an amount
+    public static final long INVALID = Long.MIN_VALUE;
+
+    // Above this, one more digit could overflow a long
+    private static final long MAX_BEFORE_DIGIT = (Long.MAX_VALUE - 9) / 10;
+
+    private Money() {
+    }
+
+    // Parses [-|+]digits[.digits] into cents. A third decimal rounds half away from zero
+    // and any further decimals are ignored. Returns INVALID if the text isn't an amount.
+    public static long parseCents(ByteBuffer buffer, int start, int end) {
+        int position = start;
+        boolean negative = false;
+        if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+
+        long cents = 0;
+        int decimals = -1;
+        boolean roundUp = false;
+        boolean seenDigit = false;
+        for (; position < end; position++) {
+            int c = buffer.get(position);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            seenDigit = true;
+            if (decimals < 2) {
+                if (cents > MAX_BEFORE_DIGIT) {
+                    return INVALID;
+                }
+                cents = cents * 10 + digit;
+            } else if (decimals == 2) {
+                roundUp = digit >= 5;
+            }
+            if (decimals >= 0) {
+                decimals++;
+            }
+        }
+        if (!seenDigit) {
+            return INVALID;
+        }
+        return finish(cents, decimals, roundUp, negative);
+    }
+
+    // Same as above for text typed in by the user, with spaces around it allowed. The text goes
+    // through the parser above, so the loader and the user can't disagree on what an amount is.
+    public static long parseCents(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = text.charAt(start + i);
+            // Nothing outside ASCII can be part of an amount
+            if (c > 0x7F) {
+                return INVALID;
+            }
+            bytes[i] = (byte) c;
+        }
+        return parseCents(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    // Scales what was parsed to exactly two decimals
+    private static long finish(long cents, int decimals, boolean roundUp, boolean negative) {
+        int missing = decimals < 0 ? 2 : Math.max(2 - decimals, 0);
+        for (int i = 0; i < missing; i++) {
+            if (cents > MAX_BEFORE_DIGIT) {
+                return INVALID;
+            }
+            cents *= 10;
+        }
+        if (roundUp) {
+            if (cents == Long.MAX_VALUE) {
+                return INVALID;
+            }
+            cents++;
+        }
+        return negative ? -cents : cents;
+    }
+
+    // Appends cents as [-]units.cc, for example -130.00
+    public static StringBuilder append(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+        }
+        // Work on the negative value so Long.MIN_VALUE doesn't overflow
+        long negativeCents = cents < 0 ? cents : -cents;
+        out.append(-(negativeCents / 100));
+        long fraction = -(negativeCents % 100);
+        out.append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+
+    public static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    // Adds two amounts, throwing ArithmeticException if the sum doesn't fit in a long
+    public static long add(long cents, long moreCents) {
+        return Math.addExact(cents, moreCents);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    public static long fromDouble(double amount) {
+        return Math.round(amount * 100);
+    }
+}
@@ -0,0 +1,214 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Loads the transactions file on several threads at once.
+// The file is cut into byte ranges that end on a newline, every range is parsed into its own
+// buffer on a fork-join pool, and the buffers are then handed to the handler in file order.
+// The handler sees exactly the same rows and bad lines, in the same order, as a serial parse.
+public class ParallelTransactionLoader {
+
+    // Ranges smaller than this aren't worth a task of their own
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    // Ranges are mapped one at a time, so each one has to fit in a single mapping
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+
+    // How many ranges to make per thread, so a slow range doesn't hold up the others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // With skipHeader, a first line that looks like a header (see TransactionParser.isHeader) is skipped
+    public static long load(Path path, boolean skipHeader, int parallelism,
+                            TransactionParser.RowHandler handler) throws IOException {
+        return load(path, skipHeader, parallelism, handler, Long.MAX_VALUE);
+    }
+
+    // Same as above for only the first limit bytes of the file
+    public static long load(Path path, boolean skipHeader, int parallelism,
+                            TransactionParser.RowHandler handler, long limit) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), limit);
+            long start = skipHeader ? headerEnd(channel, size) : 0;
+            long headerLines = start > 0 ? 1 : 0;
+
+            // Submit one parse task per range
+            long[] bounds = splitOnNewlines(channel, start, size, parallelism);
+            List<ForkJoinTask<ChunkBuffer>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(pool.submit(() -> parseChunk(channel, from, to)));
+            }
+
+            // Merge the buffers back in file order
+            long rows = 0;
+            long linesBefore = headerLines;
+            for (ForkJoinTask<ChunkBuffer> task : tasks) {
+                ChunkBuffer chunk = task.get();
+                if (!chunk.replay(handler, linesBefore)) {
+                    return rows + chunk.replayed;
+                }
+                rows += chunk.size;
+                linesBefore += chunk.lines;
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + path, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not load " + path, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ChunkBuffer parseChunk(FileChannel channel, long from, long to) throws IOException {
+        ChunkBuffer chunk = new ChunkBuffer();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        TransactionParser parser = new TransactionParser(chunk);
+        parser.parseLines(buffer, 0, (int) (to - from), true);
+        chunk.lines = parser.getLineNumber();
+        return chunk;
+    }
+
+    // Returns the range boundaries; every boundary but the last is the start of a line
+    private static long[] splitOnNewlines(FileChannel channel, long start, long size, int parallelism) throws IOException {
+        long chunkSize = (size - start) / ((long) parallelism * CHUNKS_PER_THREAD);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+
+        long[] bounds = new long[16];
+        int count = 0;
+        bounds[count++] = start;
+        long position = start;
+        while (position < size) {
+            long next = position + chunkSize >= size ? size : nextLineStart(channel, position + chunkSize, size);
+            if (next - position > MAX_CHUNK_SIZE + MIN_CHUNK_SIZE) {
+                throw new IOException("Line at byte " + (position + chunkSize) + " is too long");
+            }
+            if (count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, count * 2);
+            }
+            bounds[count++] = next;
+            position = next;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // Returns where the rows start: after the first line if it is a header, otherwise 0
+    private static long headerEnd(FileChannel channel, long size) throws IOException {
+        long end = nextLineStart(channel, 0, size);
+        ByteBuffer firstLine = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        int length = (int) end;
+        if (length > 0 && firstLine.get(length - 1) == '\n') {
+            length--;
+        }
+        return TransactionParser.isHeader(firstLine, 0, length) ? end : 0;
+    }
+
+    // Returns the offset just past the first newline at or after position, or size if there is none
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            int newline = TransactionParser.indexOf(probe, (byte) '\n', 0, read);
+            if (newline >= 0) {
+                return position + newline + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // The rows of one range, kept in plain arrays until the merge, plus the bad lines
+    // and how many rows came before each of them.
+    private static class ChunkBuffer implements TransactionParser.RowHandler {
+        private int[] epochDays = new int[1024];
+        private int[] secondsOfDay = new int[1024];
+        private long[] amounts = new long[1024];
+        private String[] descriptions = new String[1024];
+        private String[] vendors = new String[1024];
+        private int size;
+
+        private final List<Malformed> malformed = new ArrayList<>();
+        private long lines;
+        private int replayed;
+
+        @Override
+        public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+            if (size == epochDays.length) {
+                int capacity = size * 2;
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                secondsOfDay = Arrays.copyOf(secondsOfDay, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                vendors = Arrays.copyOf(vendors, capacity);
+            }
+            epochDays[size] = epochDay;
+            secondsOfDay[size] = secondOfDay;
+            amounts[size] = amountCents;
+            descriptions[size] = description;
+            vendors[size] = vendor;
+            size++;
+        }
+
+        @Override
+        public boolean malformed(long lineNumber, String reason) {
+            return malformed(lineNumber, reason, null);
+        }
+
+        @Override
+        public boolean malformed(long lineNumber, String reason, String line) {
+            // Keep going, the merge decides whether to stop here
+            malformed.add(new Malformed(size, lineNumber, reason, line));
+            return true;
+        }
+
+        // Hands the rows to the handler. Returns false if the handler asked to stop.
+        boolean replay(TransactionParser.RowHandler handler, long linesBefore) {
+            for (Malformed bad : malformed) {
+                replayRows(handler, bad.rowsBefore);
+                if (!handler.malformed(linesBefore + bad.lineNumber, bad.reason, bad.line)) {
+                    return false;
+                }
+            }
+            replayRows(handler, size);
+            return true;
+        }
+
+        private void replayRows(TransactionParser.RowHandler handler, int end) {
+            for (; replayed < end; replayed++) {
+                handler.row(epochDays[replayed], secondsOfDay[replayed], amounts[replayed],
+                        descriptions[replayed], vendors[replayed]);
+            }
+        }
+    }
+
+    private static class Malformed {
+        private final int rowsBefore;
+        private final long lineNumber;
+        private final String reason;
+        private final String line;
+
+        Malformed(int rowsBefore, long lineNumber, String reason, String line) {
+            this.rowsBefore = rowsBefore;
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+            this.line = line;
+        }
+    }
+}
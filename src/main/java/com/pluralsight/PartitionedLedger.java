@@ -0,0 +1,333 @@
+package com.pluralsight;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The ledger split into one binary file per month, so a start only has to read the manifest and
+// a report only reads the months it shows. The manifest lists every month with its row count and
+// the size and last-modified time of the CSV they were made from, so a changed CSV is noticed the
+// same way BinaryLedger notices it.
+//
+// A month is read the first time its rows are asked for, and is then held through a soft
+// reference: months that haven't been used in a while are dropped when memory runs low and read
+// again if they are needed later. A month with rows that aren't saved yet is held on to until
+// save writes it out.
+//
+// Layout of the directory:
+//   manifest: partitions|<version>|<CSV size>|<CSV last-modified time>, then <yyyy-MM>|<rows> per month
+//   <yyyy-MM>.bin: the rows of that month in date and time order, in the BinaryLedger layout
+public class PartitionedLedger {
+
+    private static final String MANIFEST = "manifest";
+    private static final String MAGIC = "partitions";
+    private static final int VERSION = 1;
+
+    // One month of rows. month is year * 12 + month - 1, as Rollups numbers them.
+    private static class Partition {
+        final int month;
+        int rows;
+        SoftReference<TransactionStore> cached;
+        // Set while the month has rows that aren't saved, so it can't be dropped
+        TransactionStore unsaved;
+
+        Partition(int month, int rows) {
+            this.month = month;
+            this.rows = rows;
+        }
+    }
+
+    private final Path directory;
+    // Size of the CSV the months were made from, as the manifest last recorded it
+    private long sourceSize;
+    private final TreeMap<Integer, Partition> partitions = new TreeMap<>();
+    private long reads;
+
+    private PartitionedLedger(Path directory) {
+        this.directory = directory;
+    }
+
+    // True if the directory has a manifest made from the CSV as it is now
+    public static boolean isCurrent(Path directory, Path csv) {
+        Path manifest = directory.resolve(MANIFEST);
+        if (!Files.exists(manifest) || !Files.exists(csv)) {
+            return false;
+        }
+        try {
+            String[] header = Files.readAllLines(manifest, StandardCharsets.UTF_8).get(0).split("\\|");
+            return header.length == 4 && header[0].equals(MAGIC) && Integer.parseInt(header[1]) == VERSION
+                    && Long.parseLong(header[2]) == Files.size(csv)
+                    && Long.parseLong(header[3]) == Files.getLastModifiedTime(csv).toMillis();
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    // Reads the manifest; the months themselves are read when they are first used
+    public static PartitionedLedger open(Path directory) throws IOException {
+        PartitionedLedger ledger = new PartitionedLedger(directory);
+        List<String> lines = Files.readAllLines(directory.resolve(MANIFEST), StandardCharsets.UTF_8);
+        try {
+            ledger.sourceSize = Long.parseLong(lines.get(0).split("\\|")[2]);
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split("\\|");
+                String[] yearMonth = fields[0].split("-");
+                int month = Integer.parseInt(yearMonth[0]) * 12 + Integer.parseInt(yearMonth[1]) - 1;
+                ledger.partitions.put(month, new Partition(month, Integer.parseInt(fields[1])));
+                if (!Files.exists(ledger.fileOf(month))) {
+                    throw new IOException(ledger.fileOf(month) + " is missing");
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException(directory.resolve(MANIFEST) + " can't be read", e);
+        }
+        return ledger;
+    }
+
+    // Splits every row of the store into months, writes them and returns them opened.
+    // sourceSize and sourceModified describe the CSV the rows came from.
+    public static PartitionedLedger write(TransactionStore store, Path directory, long sourceSize,
+                                          long sourceModified) throws IOException {
+        Files.createDirectories(directory);
+        PartitionedLedger ledger = new PartitionedLedger(directory);
+        // The date index is sorted, so each month is one run of positions
+        DateIndex dateIndex = store.getDateIndex();
+        int from = 0;
+        while (from < store.size()) {
+            int month = Rollups.monthIndexOf(store.getEpochDay(dateIndex.getRow(from)));
+            int to = dateIndex.startOf(firstDayOf(month + 1));
+            BinaryLedger.write(store, ledger.fileOf(month), sourceSize, sourceModified, from, to);
+            ledger.partitions.put(month, new Partition(month, to - from));
+            from = to;
+        }
+        // Files of months that have no rows any more
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.bin")) {
+            for (Path file : files) {
+                if (!ledger.isMonthFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        ledger.writeManifest(sourceSize, sourceModified);
+        return ledger;
+    }
+
+    // Writes out the months that have new rows, then the manifest
+    public synchronized void save(long sourceSize, long sourceModified) throws IOException {
+        Files.createDirectories(directory);
+        for (Partition partition : partitions.values()) {
+            if (partition.unsaved != null) {
+                BinaryLedger.write(partition.unsaved, fileOf(partition.month), sourceSize, sourceModified);
+                partition.cached = new SoftReference<>(partition.unsaved);
+                partition.unsaved = null;
+            }
+        }
+        writeManifest(sourceSize, sourceModified);
+    }
+
+    // Adds a row to the month it belongs to, reading that month first if it isn't in memory
+    public synchronized void add(int epochDay, int secondOfDay, long cents, String description, String vendor) throws IOException {
+        int month = Rollups.monthIndexOf(epochDay);
+        Partition partition = partitions.get(month);
+        TransactionStore store;
+        if (partition == null) {
+            partition = new Partition(month, 0);
+            partitions.put(month, partition);
+            store = new TransactionStore();
+        } else {
+            store = read(partition);
+        }
+        store.add(epochDay, secondOfDay, cents, description, vendor);
+        partition.rows++;
+        partition.unsaved = store;
+    }
+
+    // Adds every row of an imported batch, in date order, to the month it belongs to.
+    // Each month the rows go into only sorts its new rows once, after all of them are in.
+    public synchronized void addAll(BatchImporter rows) throws IOException {
+        Map<Integer, Partition> touched = new HashMap<>();
+        try {
+            for (int position = 0; position < rows.size(); position++) {
+                int month = Rollups.monthIndexOf(rows.getEpochDay(position));
+                Partition partition = touched.get(month);
+                if (partition == null) {
+                    partition = partitions.get(month);
+                    TransactionStore store;
+                    if (partition == null) {
+                        partition = new Partition(month, 0);
+                        partitions.put(month, partition);
+                        store = new TransactionStore();
+                    } else {
+                        store = read(partition);
+                    }
+                    partition.unsaved = store;
+                    store.beginLoad();
+                    touched.put(month, partition);
+                }
+                partition.unsaved.add(rows.getEpochDay(position), rows.getSecondOfDay(position),
+                        rows.getAmountCents(position), rows.getDescription(position), rows.getVendor(position));
+                partition.rows++;
+            }
+        } finally {
+            for (Partition partition : touched.values()) {
+                partition.unsaved.endLoad();
+            }
+        }
+    }
+
+    // Every month, oldest first. Each month is read when it is first taken from the list.
+    public synchronized List<TransactionStore> all() {
+        return view(partitions.values());
+    }
+
+    // The months from the one holding fromDay to the one holding toDay, oldest first
+    public synchronized List<TransactionStore> between(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return new ArrayList<>();
+        }
+        return view(partitions.subMap(Rollups.monthIndexOf(fromDay), true, Rollups.monthIndexOf(toDay), true).values());
+    }
+
+    // Adds every row to store and returns how many there were. Months in memory are copied from
+    // there, the others are read from their files straight into store.
+    public synchronized long loadAll(TransactionStore store) throws IOException {
+        store.ensureCapacity((int) Math.min(size(), Integer.MAX_VALUE));
+        long rows = 0;
+        for (Partition partition : partitions.values()) {
+            TransactionStore month = partition.unsaved != null ? partition.unsaved
+                    : partition.cached == null ? null : partition.cached.get();
+            if (month == null) {
+                rows += BinaryLedger.load(fileOf(partition.month), store);
+                continue;
+            }
+            DateIndex dateIndex = month.getDateIndex();
+            for (int position = 0; position < month.size(); position++) {
+                int row = dateIndex.getRow(position);
+                store.add(month.getEpochDay(row), month.getSecondOfDay(row), month.getAmountCents(row),
+                        month.getDescription(row), month.getVendor(row));
+            }
+            rows += month.size();
+        }
+        return rows;
+    }
+
+    // Rows in every month
+    public synchronized long size() {
+        long rows = 0;
+        for (Partition partition : partitions.values()) {
+            rows += partition.rows;
+        }
+        return rows;
+    }
+
+    // Size of the CSV the months hold every row of
+    public synchronized long getSourceSize() {
+        return sourceSize;
+    }
+
+    public synchronized int getMonthCount() {
+        return partitions.size();
+    }
+
+    // Months in memory right now
+    public synchronized int getLoadedCount() {
+        int loaded = 0;
+        for (Partition partition : partitions.values()) {
+            if (partition.unsaved != null || (partition.cached != null && partition.cached.get() != null)) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    // How many times a month was read from its file, including months read again after being dropped
+    public synchronized long getReads() {
+        return reads;
+    }
+
+    private List<TransactionStore> view(Collection<Partition> months) {
+        List<Partition> chosen = new ArrayList<>(months);
+        return new AbstractList<TransactionStore>() {
+            @Override
+            public TransactionStore get(int index) {
+                try {
+                    return read(chosen.get(index));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return chosen.size();
+            }
+        };
+    }
+
+    // The rows of the month, read from its file unless they are still in memory
+    private synchronized TransactionStore read(Partition partition) throws IOException {
+        if (partition.unsaved != null) {
+            return partition.unsaved;
+        }
+        TransactionStore store = partition.cached == null ? null : partition.cached.get();
+        if (store == null) {
+            store = new TransactionStore();
+            store.beginLoad();
+            try {
+                BinaryLedger.load(fileOf(partition.month), store);
+            } finally {
+                store.endLoad();
+            }
+            partition.cached = new SoftReference<>(store);
+            reads++;
+        }
+        return store;
+    }
+
+    private void writeManifest(long sourceSize, long sourceModified) throws IOException {
+        this.sourceSize = sourceSize;
+        Path manifest = directory.resolve(MANIFEST);
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(MAGIC + "|" + VERSION + "|" + sourceSize + "|" + sourceModified);
+            writer.write('\n');
+            for (Partition partition : partitions.values()) {
+                writer.write(Rollups.monthName(partition.month) + "|" + partition.rows);
+                writer.write('\n');
+            }
+        }
+        // The month files are already written, so the manifest never names a month that isn't there
+        Files.move(temporary, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path fileOf(int month) {
+        return directory.resolve(Rollups.monthName(month) + ".bin");
+    }
+
+    private boolean isMonthFile(Path file) {
+        for (Partition partition : partitions.values()) {
+            if (file.getFileName().equals(fileOf(partition.month).getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int firstDayOf(int month) {
+        return (int) LocalDate.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1).toEpochDay();
+    }
+}
@@ -0,0 +1,72 @@
+package com.pluralsight;
+
+// Sums and counts of the deposits and payments in some period.
+// Deposits are amounts above zero; payments are zero or below, the same split the ledger views use.
+public class PeriodTotals {
+
+    private long depositCents;
+    private long depositCount;
+    private long paymentCents;
+    private long paymentCount;
+
+    public PeriodTotals() {
+    }
+
+    public PeriodTotals(long depositCents, long depositCount, long paymentCents, long paymentCount) {
+        this.depositCents = depositCents;
+        this.depositCount = depositCount;
+        this.paymentCents = paymentCents;
+        this.paymentCount = paymentCount;
+    }
+
+    public void add(long cents) {
+        if (cents > 0) {
+            depositCents = Money.add(depositCents, cents);
+            depositCount++;
+        } else {
+            paymentCents = Money.add(paymentCents, cents);
+            paymentCount++;
+        }
+    }
+
+    public void add(PeriodTotals other) {
+        depositCents = Money.add(depositCents, other.depositCents);
+        depositCount += other.depositCount;
+        paymentCents = Money.add(paymentCents, other.paymentCents);
+        paymentCount += other.paymentCount;
+    }
+
+    public long getDepositCents() {
+        return depositCents;
+    }
+
+    public long getDepositCount() {
+        return depositCount;
+    }
+
+    // Payments are negative, so this is zero or below
+    public long getPaymentCents() {
+        return paymentCents;
+    }
+
+    public long getPaymentCount() {
+        return paymentCount;
+    }
+
+    public long getNetCents() {
+        return Money.add(depositCents, paymentCents);
+    }
+
+    public long getCount() {
+        return depositCount + paymentCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(96);
+        Money.append(out.append("Deposits: "), depositCents).append(" (").append(depositCount).append(')');
+        Money.append(out.append("  Payments: "), paymentCents).append(" (").append(paymentCount).append(')');
+        Money.append(out.append("  Net: "), getNetCents());
+        return out.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.pluralsight;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The lines a load could not use, each with its line number, the reason and the line itself,
+// written to a file next to the ledger so a bad line is skipped instead of ending the load.
+// Lines are written out as they are found, so the report takes no memory however many there
+// are, and a file without bad lines never opens it at all.
+//
+// Layout: a header line, then <line number>|<reason>|<line as it was in the file>
+public class RejectReport implements Closeable {
+
+    public static final String HEADER = "line|reason|text";
+    // How many rejects are kept in memory to be shown on screen
+    private static final int SHOWN = 5;
+    // Longer lines are cut short in the report
+    private static final int MAX_TEXT = 500;
+
+    private final Path path;
+    private BufferedWriter writer;
+    private final StringBuilder entry = new StringBuilder(128);
+    private long count;
+    private final List<String> first = new ArrayList<>();
+
+    public RejectReport(Path path) {
+        this.path = path;
+    }
+
+    public void add(long lineNumber, String reason, String line) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            writer.write(HEADER);
+            writer.newLine();
+        }
+        entry.setLength(0);
+        entry.append(lineNumber).append('|').append(reason).append('|');
+        if (line != null && line.length() > MAX_TEXT) {
+            entry.append(line, 0, MAX_TEXT).append("...");
+        } else if (line != null) {
+            entry.append(line);
+        }
+        entry.append(System.lineSeparator());
+        writer.append(entry);
+        if (count++ < SHOWN) {
+            first.add("Line " + lineNumber + ": " + reason);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // The first few rejects, as "Line n: reason"
+    public List<String> getFirst() {
+        return first;
+    }
+
+    // Finishes the report. A report from an earlier load is deleted if this one found nothing.
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        } else {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Running deposit and payment totals per day, per month and per year, updated as rows are added.
+// A month or year total is a lookup in a chunk of buckets, and any date range is summed from
+// the month and year buckets it covers plus the day buckets at its ends, without going back to the rows.
+public class Rollups {
+
+    // Days from 0000-03-01 to 1970-01-01, the start of the calendar used by monthIndexOf
+    private static final long DAYS_0000_MARCH_TO_1970 = 719528L - 60;
+    private static final int DAYS_PER_CYCLE = 146097;
+
+    private final Buckets days = new Buckets();
+    private final Buckets months = new Buckets();
+    private final Buckets years = new Buckets();
+
+    public void add(int epochDay, long cents) {
+        int month = monthIndexOf(epochDay);
+        days.add(epochDay, cents);
+        months.add(month, cents);
+        years.add(Math.floorDiv(month, 12), cents);
+    }
+
+    // Adds every row of the store from firstRow on, such as after a load. Rows of one day mostly
+    // come together, so each run of them is summed first and goes into the buckets once.
+    public void addAll(TransactionStore store, int firstRow) {
+        int row = firstRow;
+        while (row < store.size()) {
+            int epochDay = store.getEpochDay(row);
+            long deposits = 0;
+            long depositCount = 0;
+            long payments = 0;
+            long paymentCount = 0;
+            for (; row < store.size() && store.getEpochDay(row) == epochDay; row++) {
+                long cents = store.getAmountCents(row);
+                if (cents > 0) {
+                    deposits = Money.add(deposits, cents);
+                    depositCount++;
+                } else {
+                    payments = Money.add(payments, cents);
+                    paymentCount++;
+                }
+            }
+            int month = monthIndexOf(epochDay);
+            days.add(epochDay, deposits, depositCount, payments, paymentCount);
+            months.add(month, deposits, depositCount, payments, paymentCount);
+            years.add(Math.floorDiv(month, 12), deposits, depositCount, payments, paymentCount);
+        }
+    }
+
+    public PeriodTotals forDay(int epochDay) {
+        return days.get(epochDay);
+    }
+
+    // month is 1 to 12
+    public PeriodTotals forMonth(int year, int month) {
+        return months.get(year * 12 + month - 1);
+    }
+
+    public PeriodTotals forYear(int year) {
+        return years.get(year);
+    }
+
+    // Totals of every day from fromDay to toDay, both included. The whole months in the range come
+    // from the month buckets and the whole years among them from the year buckets, so only the
+    // days at either end are summed one by one.
+    public PeriodTotals between(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return new PeriodTotals();
+        }
+        int fromMonth = monthIndexOf(fromDay);
+        int toMonth = monthIndexOf(toDay);
+        if (firstDayOf(fromMonth) != fromDay) {
+            fromMonth++;
+        }
+        if (firstDayOf(toMonth + 1) - 1 != toDay) {
+            toMonth--;
+        }
+        if (fromMonth > toMonth) {
+            return days.sum(fromDay, toDay);
+        }
+        PeriodTotals totals = days.sum(fromDay, firstDayOf(fromMonth) - 1);
+        int fromYear = Math.floorDiv(fromMonth + 11, 12);
+        int toYear = Math.floorDiv(toMonth + 1, 12) - 1;
+        if (fromYear <= toYear) {
+            totals.add(months.sum(fromMonth, fromYear * 12 - 1));
+            totals.add(years.sum(fromYear, toYear));
+            totals.add(months.sum((toYear + 1) * 12, toMonth));
+        } else {
+            totals.add(months.sum(fromMonth, toMonth));
+        }
+        totals.add(days.sum(firstDayOf(toMonth + 1), toDay));
+        return totals;
+    }
+
+    // year * 12 + month - 1 for the given day; same arithmetic as LocalDate.ofEpochDay
+    static int monthIndexOf(int epochDay) {
+        long zeroDay = epochDay + DAYS_0000_MARCH_TO_1970;
+        long adjust = 0;
+        if (zeroDay < 0) {
+            long adjustCycles = (zeroDay + 1) / DAYS_PER_CYCLE - 1;
+            adjust = adjustCycles * 400;
+            zeroDay += -adjustCycles * DAYS_PER_CYCLE;
+        }
+        long year = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+        long dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        if (dayOfYear < 0) {
+            year--;
+            dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        }
+        year += adjust;
+        // Months counted from March, so February and its leap day come last
+        int marchMonth = (int) (dayOfYear * 5 + 2) / 153;
+        int month = (marchMonth + 2) % 12;
+        year += marchMonth / 10;
+        return (int) year * 12 + month;
+    }
+
+    // The epoch day of the 1st of a month numbered by monthIndexOf
+    private static int firstDayOf(int month) {
+        return (int) LocalDate.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1).toEpochDay();
+    }
+
+    // yyyy-MM of a month numbered by monthIndexOf
+    public static String monthName(int month) {
+        return String.format("%04d-%02d", Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+    }
+
+    // Totals per key, kept in chunks of CHUNK_SIZE consecutive keys. Only chunks with at least one
+    // row are allocated, so a stray date centuries away from the rest costs one more chunk rather
+    // than a bucket for every day in between.
+    private static class Buckets {
+        private static final int CHUNK_BITS = 9;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        // Each key has four totals in its chunk: deposit cents, deposits, payment cents, payments
+        private static final int DEPOSIT_CENTS = 0;
+        private static final int DEPOSIT_COUNT = 1;
+        private static final int PAYMENT_CENTS = 2;
+        private static final int PAYMENT_COUNT = 3;
+
+        // The chunk of every chunk number from firstChunk on, or null if none of its keys has a row.
+        // The list of chunks grows at either end.
+        private int firstChunk;
+        private long[][] chunks = new long[0][];
+
+        void add(int key, long cents) {
+            if (cents > 0) {
+                add(key, cents, 1, 0, 0);
+            } else {
+                add(key, 0, 0, cents, 1);
+            }
+        }
+
+        void add(int key, long deposits, long depositCount, long payments, long paymentCount) {
+            long[] chunk = chunkFor(key);
+            int index = (key & (CHUNK_SIZE - 1)) * 4;
+            chunk[index + DEPOSIT_CENTS] = Money.add(chunk[index + DEPOSIT_CENTS], deposits);
+            chunk[index + DEPOSIT_COUNT] += depositCount;
+            chunk[index + PAYMENT_CENTS] = Money.add(chunk[index + PAYMENT_CENTS], payments);
+            chunk[index + PAYMENT_COUNT] += paymentCount;
+        }
+
+        PeriodTotals get(int key) {
+            int chunkIndex = (key >> CHUNK_BITS) - firstChunk;
+            if (chunkIndex < 0 || chunkIndex >= chunks.length || chunks[chunkIndex] == null) {
+                return new PeriodTotals();
+            }
+            long[] chunk = chunks[chunkIndex];
+            int index = (key & (CHUNK_SIZE - 1)) * 4;
+            return new PeriodTotals(chunk[index + DEPOSIT_CENTS], chunk[index + DEPOSIT_COUNT],
+                    chunk[index + PAYMENT_CENTS], chunk[index + PAYMENT_COUNT]);
+        }
+
+        PeriodTotals sum(int fromKey, int toKey) {
+            long deposits = 0;
+            long depositCount = 0;
+            long payments = 0;
+            long paymentCount = 0;
+            int fromChunk = Math.max(fromKey >> CHUNK_BITS, firstChunk);
+            int toChunk = Math.min(toKey >> CHUNK_BITS, firstChunk + chunks.length - 1);
+            for (int chunkNumber = fromChunk; chunkNumber <= toChunk && fromKey <= toKey; chunkNumber++) {
+                long[] chunk = chunks[chunkNumber - firstChunk];
+                if (chunk == null) {
+                    continue;
+                }
+                int from = chunkNumber == fromKey >> CHUNK_BITS ? fromKey & (CHUNK_SIZE - 1) : 0;
+                int to = chunkNumber == toKey >> CHUNK_BITS ? toKey & (CHUNK_SIZE - 1) : CHUNK_SIZE - 1;
+                for (int index = from * 4; index <= to * 4; index += 4) {
+                    deposits = Money.add(deposits, chunk[index + DEPOSIT_CENTS]);
+                    depositCount += chunk[index + DEPOSIT_COUNT];
+                    payments = Money.add(payments, chunk[index + PAYMENT_CENTS]);
+                    paymentCount += chunk[index + PAYMENT_COUNT];
+                }
+            }
+            return new PeriodTotals(deposits, depositCount, payments, paymentCount);
+        }
+
+        // The chunk key is in, made if it isn't there yet
+        private long[] chunkFor(int key) {
+            int chunkNumber = key >> CHUNK_BITS;
+            int length = chunks.length;
+            if (length == 0) {
+                firstChunk = chunkNumber;
+                chunks = new long[4][];
+            } else if (chunkNumber < firstChunk) {
+                // Grow at the front, leaving some room for even older chunks
+                int shift = Math.max(firstChunk - chunkNumber, length / 2);
+                long[][] moved = new long[length + shift][];
+                System.arraycopy(chunks, 0, moved, shift, length);
+                chunks = moved;
+                firstChunk -= shift;
+            } else if (chunkNumber - firstChunk >= length) {
+                chunks = Arrays.copyOf(chunks, Math.max(chunkNumber - firstChunk + 1, length * 2));
+            }
+            int index = chunkNumber - firstChunk;
+            if (chunks[index] == null) {
+                chunks[index] = new long[CHUNK_SIZE * 4];
+            }
+            return chunks[index];
+        }
+    }
+}
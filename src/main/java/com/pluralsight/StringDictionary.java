@@ -0,0 +1,91 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+
+// Hands out a small int id for every distinct String, so a column can store the id
+// instead of a reference and each distinct value is kept in memory only once.
+public class StringDictionary {
+
+    private String[] values = new String[64];
+    private int size;
+
+    // Open addressing table of id + 1, 0 marks an empty slot
+    private int[] slots = new int[128];
+
+    // Returns the id of value, adding it if it hasn't been seen before
+    public int intern(String value) {
+        int mask = slots.length - 1;
+        int slot = mix(value.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (values[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int id = size++;
+        values[id] = value;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    // Returns the id of value, or -1 if it has never been interned
+    public int find(String value) {
+        int mask = slots.length - 1;
+        int slot = mix(value.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (values[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Rough bytes taken by the table and the Strings in it, counting each String as one byte per
+    // character plus about 40 bytes for the String and its array
+    public long estimateBytes() {
+        long bytes = values.length * 4L + slots.length * 4L;
+        String[] strings = values;
+        for (int id = 0; id < Math.min(size, strings.length); id++) {
+            // Null if read from another thread while the value is being added
+            bytes += strings[id] == null ? 0 : 40 + strings[id].length();
+        }
+        return bytes;
+    }
+
+    private void rehash() {
+        int[] table = new int[slots.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(values[id].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        slots = table;
+    }
+
+    // Spreads the bits of String.hashCode so similar strings don't cluster in the table
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,668 @@
+package com.pluralsight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Finds rows by the words in their description and vendor, without scanning the store.
+// Text is split into lower-cased words of letters and digits, and every word has a posting list
+// of the rows that contain it. Rows are added in increasing order, so each list is kept as the
+// gaps between its row numbers, written as variable-length bytes: a word used on every row
+// takes about one byte per row.
+//
+// Descriptions and vendors are split into words once per distinct value in the store's
+// dictionaries, not once per row, so adding a row only appends to a few lists.
+//
+// Queries:  coffee shop      rows with both words
+//           coffee OR tea    rows with either
+//           star*            rows with a word starting with star
+// AND binds tighter than OR, so "a b OR c" is (a AND b) OR c.
+//
+// Every 64th entry of a list is also noted in a skip table with its byte offset, so a short list
+// can be intersected with a long one by jumping through the long one instead of decoding it all.
+// A date range narrower than the words becomes one more list to intersect with.
+public class TextIndex {
+
+    private static final int SKIP_INTERVAL = 64;
+    // A list this many times longer than the rows found so far is skipped through, not decoded
+    private static final int SKIP_RATIO = 4;
+
+    private final StringDictionary terms = new StringDictionary();
+    private byte[][] postings = new byte[64][];
+    private int[] postingLengths = new int[64];
+    private int[] postingCounts = new int[64];
+    private int[] lastRows = new int[64];
+    // Pairs of (row, byte offset just after it) for every SKIP_INTERVAL-th entry of each list
+    private int[][] skips = new int[64][];
+    private int[] skipLengths = new int[64];
+
+    // Word ids of every description and vendor id, split the first time the id is seen
+    private int[][] descriptionTerms = new int[64][];
+    private int[][] vendorTerms = new int[64][];
+
+    // Word ids sorted by word, for prefix queries; rebuilt when new words have been added
+    private int[] sortedTerms = new int[0];
+
+    public void add(int row, int descriptionId, String description, int vendorId, String vendor) {
+        if (descriptionId >= descriptionTerms.length) {
+            descriptionTerms = Arrays.copyOf(descriptionTerms, Math.max(descriptionTerms.length * 2, descriptionId + 1));
+        }
+        if (descriptionTerms[descriptionId] == null) {
+            descriptionTerms[descriptionId] = termIds(description);
+        }
+        if (vendorId >= vendorTerms.length) {
+            vendorTerms = Arrays.copyOf(vendorTerms, Math.max(vendorTerms.length * 2, vendorId + 1));
+        }
+        if (vendorTerms[vendorId] == null) {
+            vendorTerms[vendorId] = termIds(vendor);
+        }
+        for (int term : descriptionTerms[descriptionId]) {
+            addPosting(term, row);
+        }
+        for (int term : vendorTerms[vendorId]) {
+            addPosting(term, row);
+        }
+    }
+
+    // Adds every row of the store from firstRow on, such as after a load. Rather than going row by
+    // row, the new rows are grouped by description and by vendor, and each word's list is then
+    // written in one go from the groups that contain the word.
+    public void addAll(TransactionStore store, int firstRow) {
+        int count = store.size() - firstRow;
+        if (count <= 0) {
+            return;
+        }
+        StringDictionary descriptions = store.getDescriptions();
+        StringDictionary vendors = store.getVendors();
+        if (descriptions.size() > descriptionTerms.length) {
+            descriptionTerms = Arrays.copyOf(descriptionTerms, descriptions.size());
+        }
+        if (vendors.size() > vendorTerms.length) {
+            vendorTerms = Arrays.copyOf(vendorTerms, vendors.size());
+        }
+        int[] descriptionCounts = new int[descriptions.size()];
+        int[] vendorCounts = new int[vendors.size()];
+        for (int row = firstRow; row < firstRow + count; row++) {
+            descriptionCounts[store.getDescriptionId(row)]++;
+            vendorCounts[store.getVendorId(row)]++;
+        }
+        int[][] descriptionRows = groups(descriptionCounts);
+        int[][] vendorRows = groups(vendorCounts);
+        Arrays.fill(descriptionCounts, 0);
+        Arrays.fill(vendorCounts, 0);
+        for (int row = firstRow; row < firstRow + count; row++) {
+            int descriptionId = store.getDescriptionId(row);
+            int vendorId = store.getVendorId(row);
+            descriptionRows[descriptionId][descriptionCounts[descriptionId]++] = row;
+            vendorRows[vendorId][vendorCounts[vendorId]++] = row;
+        }
+
+        // The groups of rows each word is in
+        List<List<int[]>> groupsOfTerm = new ArrayList<>();
+        for (int descriptionId = 0; descriptionId < descriptionRows.length; descriptionId++) {
+            if (descriptionRows[descriptionId] != null) {
+                if (descriptionTerms[descriptionId] == null) {
+                    descriptionTerms[descriptionId] = termIds(descriptions.get(descriptionId));
+                }
+                addGroup(groupsOfTerm, descriptionTerms[descriptionId], descriptionRows[descriptionId]);
+            }
+        }
+        for (int vendorId = 0; vendorId < vendorRows.length; vendorId++) {
+            if (vendorRows[vendorId] != null) {
+                if (vendorTerms[vendorId] == null) {
+                    vendorTerms[vendorId] = termIds(vendors.get(vendorId));
+                }
+                addGroup(groupsOfTerm, vendorTerms[vendorId], vendorRows[vendorId]);
+            }
+        }
+
+        long[] marked = null;
+        for (int term = 0; term < groupsOfTerm.size(); term++) {
+            List<int[]> groups = groupsOfTerm.get(term);
+            if (groups == null) {
+                continue;
+            }
+            if (groups.size() == 1) {
+                appendRows(term, groups.get(0), groups.get(0).length);
+                continue;
+            }
+            int total = 0;
+            for (int[] group : groups) {
+                total += group.length;
+            }
+            int[] rows = new int[total];
+            int found = 0;
+            if (total < count / 64) {
+                // A rare word: sort its rows and drop the ones in more than one group
+                for (int[] group : groups) {
+                    System.arraycopy(group, 0, rows, found, group.length);
+                    found += group.length;
+                }
+                Arrays.sort(rows);
+                found = 0;
+                for (int i = 0; i < total; i++) {
+                    if (found == 0 || rows[i] != rows[found - 1]) {
+                        rows[found++] = rows[i];
+                    }
+                }
+            } else {
+                // A common word: mark its rows in a bitmap and read them back in order
+                if (marked == null) {
+                    marked = new long[(count + 63) >>> 6];
+                } else {
+                    Arrays.fill(marked, 0);
+                }
+                for (int[] group : groups) {
+                    for (int row : group) {
+                        int bit = row - firstRow;
+                        marked[bit >>> 6] |= 1L << bit;
+                    }
+                }
+                for (int word = 0; word < marked.length; word++) {
+                    long bits = marked[word];
+                    while (bits != 0) {
+                        rows[found++] = firstRow + (word << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+            appendRows(term, rows, found);
+        }
+    }
+
+    // Rows matching the query, in the order they were added
+    public IntList search(String query) {
+        return search(query, null, null);
+    }
+
+    // Rows matching the query whose date is from fromDay to toDay, both included
+    public IntList search(String query, TransactionStore store, int fromDay, int toDay) {
+        DateIndex dateIndex = store.getDateIndex();
+        int start = dateIndex.startOf(fromDay);
+        int end = dateIndex.endOf(toDay);
+        List<List<Clause>> groups = clauses(query);
+        if (end - start < estimate(groups)) {
+            // Fewer rows in the range than match the words: start from the range.
+            // The rows are marked in a bitmap and read back in order, cheaper than sorting them.
+            long[] marked = new long[(store.size() + 63) >>> 6];
+            for (int position = start; position < end; position++) {
+                int row = dateIndex.getRow(position);
+                marked[row >>> 6] |= 1L << row;
+            }
+            int[] inRange = new int[Math.max(end - start, 0)];
+            int count = 0;
+            for (int word = 0; word < marked.length; word++) {
+                long bits = marked[word];
+                while (bits != 0) {
+                    inRange[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            return search(query, groups, new Clause(inRange));
+        }
+        IntList all = search(query, groups, null);
+        IntList rows = new IntList();
+        for (int i = 0; i < all.size(); i++) {
+            int row = all.get(i);
+            int day = store.getEpochDay(row);
+            if (day >= fromDay && day <= toDay) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private IntList search(String query, List<List<Clause>> groups, Clause range) {
+        if (groups == null) {
+            groups = clauses(query);
+        }
+        int[] found = new int[0];
+        for (List<Clause> group : groups) {
+            if (range != null) {
+                group.add(range);
+            }
+            found = union(found, matchAll(group));
+        }
+        IntList rows = new IntList(found.length);
+        for (int row : found) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // Number of distinct words
+    public int size() {
+        return terms.size();
+    }
+
+    // Bytes used by all the posting lists
+    public long postingBytes() {
+        long total = 0;
+        for (int term = 0; term < terms.size(); term++) {
+            total += postingLengths[term];
+        }
+        return total;
+    }
+
+    // Splits a query into OR groups of words that must all match. A word ending in * is a prefix.
+    private static List<List<String>> parse(String query) {
+        List<List<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                if (!group.isEmpty()) {
+                    groups.add(group);
+                    group = new ArrayList<>();
+                }
+            } else if (!word.equals("AND") && !word.isEmpty()) {
+                boolean prefix = word.endsWith("*");
+                List<String> tokens = tokenize(word);
+                for (int i = 0; i < tokens.size(); i++) {
+                    // Only the last part of a word like "7-ele*" is a prefix
+                    group.add(prefix && i == tokens.size() - 1 ? tokens.get(i) + "*" : tokens.get(i));
+                }
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    // One list of a query: a single word, still compressed, or rows already worked out
+    private static class Clause {
+        final int term;
+        int[] rows;
+        final long size;
+
+        Clause(int term, long size) {
+            this.term = term;
+            this.size = size;
+        }
+
+        Clause(int[] rows) {
+            this.term = -1;
+            this.rows = rows;
+            this.size = rows.length;
+        }
+    }
+
+    private List<List<Clause>> clauses(String query) {
+        List<List<Clause>> groups = new ArrayList<>();
+        for (List<String> words : parse(query)) {
+            List<Clause> group = new ArrayList<>();
+            for (String word : words) {
+                if (word.endsWith("*")) {
+                    group.add(new Clause(rowsWithPrefix(word.substring(0, word.length() - 1))));
+                } else {
+                    int term = terms.find(word);
+                    group.add(term < 0 ? new Clause(new int[0]) : new Clause(term, postingCounts[term]));
+                }
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    // Most rows the query could match: the shortest list of each group, added up
+    private static long estimate(List<List<Clause>> groups) {
+        long total = 0;
+        for (List<Clause> group : groups) {
+            long smallest = Long.MAX_VALUE;
+            for (Clause clause : group) {
+                smallest = Math.min(smallest, clause.size);
+            }
+            total += smallest;
+        }
+        return total;
+    }
+
+    // Rows that match every list of the group, smallest list first so the others only narrow it down
+    private int[] matchAll(List<Clause> group) {
+        group.sort((a, b) -> Long.compare(a.size, b.size));
+        int[] found = rowsOf(group.get(0));
+        for (int i = 1; i < group.size() && found.length > 0; i++) {
+            Clause clause = group.get(i);
+            if (clause.rows == null && clause.size > (long) found.length * SKIP_RATIO) {
+                found = intersectCompressed(found, clause.term);
+            } else {
+                found = intersect(found, rowsOf(clause));
+            }
+        }
+        return found;
+    }
+
+    private int[] rowsOf(Clause clause) {
+        if (clause.rows == null) {
+            clause.rows = decode(clause.term);
+        }
+        return clause.rows;
+    }
+
+    private int[] rowsWithPrefix(String prefix) {
+        int[] sorted = sortedTerms();
+        // Binary search for the first word that is not below the prefix
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms.get(sorted[middle]).compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < sorted.length && terms.get(sorted[end]).startsWith(prefix)) {
+            end++;
+        }
+        if (end - low == 1) {
+            return decode(sorted[low]);
+        }
+        // Put the lists of every matching word together, then sort and drop rows found twice
+        long total = 0;
+        for (int i = low; i < end; i++) {
+            total += postingCounts[sorted[i]];
+        }
+        int[] all = new int[(int) Math.min(total, Integer.MAX_VALUE - 8)];
+        int count = 0;
+        for (int i = low; i < end; i++) {
+            int[] rows = decode(sorted[i]);
+            System.arraycopy(rows, 0, all, count, rows.length);
+            count += rows.length;
+        }
+        Arrays.sort(all, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || all[unique - 1] != all[i]) {
+                all[unique++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, unique);
+    }
+
+    private int[] sortedTerms() {
+        if (sortedTerms.length != terms.size()) {
+            Integer[] ids = new Integer[terms.size()];
+            for (int term = 0; term < ids.length; term++) {
+                ids[term] = term;
+            }
+            Arrays.sort(ids, (a, b) -> terms.get(a).compareTo(terms.get(b)));
+            int[] sorted = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                sorted[i] = ids[i];
+            }
+            sortedTerms = sorted;
+        }
+        return sortedTerms;
+    }
+
+    private int[] termIds(String text) {
+        List<String> tokens = tokenize(text);
+        int[] ids = new int[tokens.size()];
+        int count = 0;
+        for (String token : tokens) {
+            int id = terms.intern(token);
+            if (id >= postings.length) {
+                int capacity = Math.max(postings.length * 2, id + 1);
+                postings = Arrays.copyOf(postings, capacity);
+                postingLengths = Arrays.copyOf(postingLengths, capacity);
+                postingCounts = Arrays.copyOf(postingCounts, capacity);
+                lastRows = Arrays.copyOf(lastRows, capacity);
+                skips = Arrays.copyOf(skips, capacity);
+                skipLengths = Arrays.copyOf(skipLengths, capacity);
+            }
+            if (postings[id] == null) {
+                postings[id] = new byte[8];
+                lastRows[id] = -1;
+                skips[id] = new int[0];
+            }
+            ids[count++] = id;
+        }
+        return ids;
+    }
+
+    // Appends the gap from the word's last row, 7 bits per byte with the high bit set on all but the last
+    private void addPosting(int term, int row) {
+        if (lastRows[term] == row) {
+            // The word is in the description and the vendor, or twice in one of them
+            return;
+        }
+        byte[] bytes = postings[term];
+        int length = postingLengths[term];
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            postings[term] = bytes;
+        }
+        int gap = row - lastRows[term];
+        while ((gap & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+        postingLengths[term] = length;
+        postingCounts[term]++;
+        lastRows[term] = row;
+        if (postingCounts[term] % SKIP_INTERVAL == 0) {
+            int[] skip = skips[term];
+            int skipLength = skipLengths[term];
+            if (skipLength + 2 > skip.length) {
+                skip = Arrays.copyOf(skip, Math.max(8, skip.length * 2));
+                skips[term] = skip;
+            }
+            skip[skipLength] = row;
+            skip[skipLength + 1] = length;
+            skipLengths[term] = skipLength + 2;
+        }
+    }
+
+    // Appends rows, which are in increasing order and all after the last row of the list
+    private void appendRows(int term, int[] rows, int count) {
+        byte[] bytes = postings[term];
+        int length = postingLengths[term];
+        int postingCount = postingCounts[term];
+        int last = lastRows[term];
+        int[] skip = skips[term];
+        int skipLength = skipLengths[term];
+        for (int i = 0; i < count; i++) {
+            if (length + 5 > bytes.length) {
+                // Room for at least a byte for every row still to come
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Math.max(bytes.length * 2L, length + 5L + count - i),
+                        Integer.MAX_VALUE - 8));
+            }
+            int row = rows[i];
+            int gap = row - last;
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = row;
+            postingCount++;
+            if (postingCount % SKIP_INTERVAL == 0) {
+                if (skipLength + 2 > skip.length) {
+                    skip = Arrays.copyOf(skip, Math.max(8, skip.length * 2));
+                }
+                skip[skipLength] = row;
+                skip[skipLength + 1] = length;
+                skipLength += 2;
+            }
+        }
+        postings[term] = bytes;
+        postingLengths[term] = length;
+        postingCounts[term] = postingCount;
+        lastRows[term] = last;
+        skips[term] = skip;
+        skipLengths[term] = skipLength;
+    }
+
+    // Adds a group of rows to the list of every word in terms, once for a word that is in it twice
+    private static void addGroup(List<List<int[]>> groupsOfTerm, int[] terms, int[] rows) {
+        for (int term : terms) {
+            while (groupsOfTerm.size() <= term) {
+                groupsOfTerm.add(null);
+            }
+            List<int[]> groups = groupsOfTerm.get(term);
+            if (groups == null) {
+                groups = new ArrayList<>();
+                groupsOfTerm.set(term, groups);
+            }
+            if (groups.isEmpty() || groups.get(groups.size() - 1) != rows) {
+                groups.add(rows);
+            }
+        }
+    }
+
+    // An array for each id with that many rows, or null for an id with none
+    private static int[][] groups(int[] counts) {
+        int[][] groups = new int[counts.length][];
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                groups[id] = new int[counts[id]];
+            }
+        }
+        return groups;
+    }
+
+    private int[] decode(int term) {
+        byte[] bytes = postings[term];
+        int length = postingLengths[term];
+        int[] rows = new int[postingCounts[term]];
+        int row = -1;
+        int count = 0;
+        for (int i = 0; i < length; ) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[i++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            row += gap;
+            rows[count++] = row;
+        }
+        return rows;
+    }
+
+    // Rows of found that are also in the word's list, jumping through the list with its skip table
+    private int[] intersectCompressed(int[] found, int term) {
+        byte[] bytes = postings[term];
+        int length = postingLengths[term];
+        int[] skip = skips[term];
+        int skipLength = skipLengths[term];
+        int[] matched = new int[found.length];
+        int count = 0;
+        int position = 0;
+        int row = -1;
+        int nextSkip = 0;
+        for (int candidate : found) {
+            // Jump to the last noted entry before the candidate
+            while (nextSkip < skipLength && skip[nextSkip] < candidate) {
+                if (skip[nextSkip + 1] > position) {
+                    row = skip[nextSkip];
+                    position = skip[nextSkip + 1];
+                }
+                nextSkip += 2;
+            }
+            // Then decode from there
+            while (row < candidate && position < length) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += gap;
+            }
+            if (row == candidate) {
+                matched[count++] = candidate;
+            } else if (row < candidate) {
+                // The list has run out
+                break;
+            }
+        }
+        return Arrays.copyOf(matched, count);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] found = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < a.length && j < b.length; i++) {
+            int row = a[i];
+            // b is the longer list, so skip ahead in it with a galloping search
+            if (b[j] < row) {
+                j = gallop(b, j, row);
+            }
+            if (j < b.length && b[j] == row) {
+                found[count++] = row;
+                j++;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // First index at or after from whose value is at least row
+    private static int gallop(int[] rows, int from, int row) {
+        int step = 1;
+        int high = from + 1;
+        while (high < rows.length && rows[high] < row) {
+            from = high;
+            step *= 2;
+            high = from + step;
+        }
+        high = Math.min(high + 1, rows.length);
+        int index = Arrays.binarySearch(rows, from, high, row);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        int[] found = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                found[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                found[count++] = b[j++];
+            } else {
+                found[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            found[count++] = a[i++];
+        }
+        while (j < b.length) {
+            found[count++] = b[j++];
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
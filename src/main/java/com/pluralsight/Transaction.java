@@ -6,14 +6,23 @@ public class Transaction {
     private LocalTime time;
     private String description;
     private String vendor;
-    private double amount;
+    // Kept in cents so amounts are exact; see Money
+    private long amountCents;
 
     public Transaction(LocalDate date, LocalTime time, String description, String vendor, double amount) {
         this.date = date;
         this.time = time;
         this.description = description;
         this.vendor = vendor;
-        this.amount = amount;
+        this.amountCents = Money.fromDouble(amount);
+    }
+
+    // The amount is in cents here, not dollars, so it has its own name rather than a constructor
+    public static Transaction ofCents(LocalDate date, LocalTime time, String description, String vendor,
+                                      long amountCents) {
+        Transaction transaction = new Transaction(date, time, description, vendor, 0);
+        transaction.amountCents = amountCents;
+        return transaction;
     }
 
     public LocalDate getDate() {
@@ -49,21 +58,29 @@ public class Transaction {
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toDouble(getAmountCents());
     }
 
     public void setAmount(double amount) {
-        this.amount = amount;
+        setAmountCents(Money.fromDouble(amount));
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public void setAmountCents(long amountCents) {
+        this.amountCents = amountCents;
     }
 
     @Override
     public String toString() {
         return "Transaction{" +
-                "date=" + date +
-                ", time=" + time +
-                ", description='" + description + '\'' +
-                ", vendor='" + vendor + '\'' +
-                ", amount=" + amount +
+                "date=" + getDate() +
+                ", time=" + getTime() +
+                ", description='" + getDescription() + '\'' +
+                ", vendor='" + getVendor() + '\'' +
+                ", amount=" + Money.format(getAmountCents()) +
                 '}';
     }
 }
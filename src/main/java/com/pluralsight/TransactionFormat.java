@@ -0,0 +1,67 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+
+// Writes a transaction as a line of the pipe-delimited file:
+// <yyyy-MM-dd>|<HH:mm:ss>|<description>|<vendor>|<amount>
+// This is the one place the file format is written, so every writer produces the same lines.
+// Years are always four digits, so only dates from 0000-01-01 to 9999-12-31 can be written;
+// every writer checks a date with isWritable before taking the row.
+public final class TransactionFormat {
+
+    private static final int MIN_EPOCH_DAY = (int) LocalDate.of(0, 1, 1).toEpochDay();
+    private static final int MAX_EPOCH_DAY = (int) LocalDate.of(9999, 12, 31).toEpochDay();
+
+    private TransactionFormat() {
+    }
+
+    public static boolean isWritable(int epochDay) {
+        return epochDay >= MIN_EPOCH_DAY && epochDay <= MAX_EPOCH_DAY;
+    }
+
+    public static boolean isWritable(LocalDate date) {
+        return date.getYear() >= 0 && date.getYear() <= 9999;
+    }
+
+    public static StringBuilder appendLine(StringBuilder out, int epochDay, int secondOfDay, long cents,
+                                           String description, String vendor) {
+        appendDate(out, epochDay).append('|');
+        appendTime(out, secondOfDay).append('|');
+        out.append(description).append('|').append(vendor).append('|');
+        return Money.append(out, cents);
+    }
+
+    public static StringBuilder appendLine(StringBuilder out, Transaction transaction) {
+        return appendLine(out, (int) transaction.getDate().toEpochDay(), transaction.getTime().toSecondOfDay(),
+                transaction.getAmountCents(), transaction.getDescription(), transaction.getVendor());
+    }
+
+    public static StringBuilder appendLine(StringBuilder out, TransactionStore store, int row) {
+        return appendLine(out, store.getEpochDay(row), store.getSecondOfDay(row), store.getAmountCents(row),
+                store.getDescription(row), store.getVendor(row));
+    }
+
+    // yyyy-MM-dd
+    public static StringBuilder appendDate(StringBuilder out, int epochDay) {
+        if (!isWritable(epochDay)) {
+            throw new IllegalArgumentException("The date must be from 0000-01-01 to 9999-12-31");
+        }
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        out.append((char) ('0' + year / 1000 % 10)).append((char) ('0' + year / 100 % 10));
+        appendTwoDigits(out, year % 100).append('-');
+        appendTwoDigits(out, date.getMonthValue()).append('-');
+        return appendTwoDigits(out, date.getDayOfMonth());
+    }
+
+    // HH:mm:ss
+    public static StringBuilder appendTime(StringBuilder out, int secondOfDay) {
+        appendTwoDigits(out, secondOfDay / 3600).append(':');
+        appendTwoDigits(out, secondOfDay / 60 % 60).append(':');
+        return appendTwoDigits(out, secondOfDay % 60);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder out, int value) {
+        return out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
@@ -0,0 +1,309 @@
+package com.pluralsight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads the pipe-delimited transactions file straight from a memory-mapped buffer.
+// Each line looks like: <yyyy-MM-dd>|<HH:mm:ss>|<description>|<vendor>|<amount>
+// Dates, times and amounts (as cents) are decoded from the raw bytes, so only the description
+// and the vendor ever become Strings.
+public class TransactionParser {
+
+    // Largest part of the file mapped at one time. A line cut off at the end of a window
+    // is read again at the start of the next one.
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    // Days from 0000-01-01 to 1970-01-01, used to turn a calendar date into an epoch day
+    private static final long DAYS_0000_TO_1970 = 719528L;
+
+    // Receives every parsed row and every line that could not be parsed
+    public interface RowHandler {
+        void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor);
+
+        // Return false to stop parsing at this line
+        boolean malformed(long lineNumber, String reason);
+
+        // Same as above with the text of the line, for handlers that keep it
+        default boolean malformed(long lineNumber, String reason, String line) {
+            return malformed(lineNumber, reason);
+        }
+    }
+
+    private final RowHandler handler;
+    private byte[] scratch = new byte[128];
+    private long lineNumber;
+    private long rows;
+    private boolean stopped;
+
+    // Values decoded by the field parsers below, kept in fields so nothing gets boxed
+    private int parsedValue;
+    private long parsedCents;
+    private String failure;
+
+    public TransactionParser(RowHandler handler) {
+        this.handler = handler;
+    }
+
+    // Parses the whole file and returns the number of rows handed to the handler.
+    // With skipHeader, a first line that looks like the header (see isHeader) is skipped.
+    public long parseFile(Path path, boolean skipHeader) throws IOException {
+        return parseFile(path, skipHeader, Long.MAX_VALUE);
+    }
+
+    // Same as above for only the first limit bytes of the file, so rows another program is
+    // appending while the file is read are left for later
+    public long parseFile(Path path, boolean skipHeader, long limit) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), limit);
+            long position = 0;
+            boolean skipLine = skipHeader;
+
+            while (position < size && !stopped) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                boolean lastWindow = position + length == size;
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int start = 0;
+                if (skipLine) {
+                    // Skip the first line if it's a header; a file may also start straight with a row
+                    int newline = indexOf(buffer, (byte) '\n', 0, (int) length);
+                    if (newline < 0 && !lastWindow) {
+                        throw new IOException("First line is longer than " + WINDOW_SIZE + " bytes");
+                    }
+                    if (isHeader(buffer, 0, newline < 0 ? (int) length : newline)) {
+                        start = newline < 0 ? (int) length : newline + 1;
+                        lineNumber++;
+                    }
+                    skipLine = false;
+                }
+
+                int consumed = parseLines(buffer, start, (int) length, lastWindow);
+                if (consumed == 0 && !lastWindow) {
+                    throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW_SIZE + " bytes");
+                }
+                position += consumed;
+            }
+        }
+        return rows;
+    }
+
+    // Parses the lines in [start, end) and returns the offset just past the last line consumed.
+    // When endOfInput is true a final line without a newline is parsed as well.
+    public int parseLines(ByteBuffer buffer, int start, int end, boolean endOfInput) {
+        int lineStart = start;
+        while (lineStart < end && !stopped) {
+            int newline = indexOf(buffer, (byte) '\n', lineStart, end);
+            if (newline < 0 && !endOfInput) {
+                break;
+            }
+            int lineEnd = newline < 0 ? end : newline;
+            lineNumber++;
+            parseLine(buffer, lineStart, lineEnd);
+            lineStart = newline < 0 ? end : newline + 1;
+        }
+        return lineStart;
+    }
+
+    // True if the line in [start, end) looks like a header, such as the column names the app
+    // writes: it isn't blank and doesn't start with the digits of a date. A first line that starts
+    // like a row but can't be read, or is blank, is a bad row and goes to the handler like any other.
+    public static boolean isHeader(ByteBuffer buffer, int start, int end) {
+        // A byte order mark left by some editors, and the carriage return of Windows line endings
+        if (end - start >= 3 && buffer.get(start) == (byte) 0xEF && buffer.get(start + 1) == (byte) 0xBB
+                && buffer.get(start + 2) == (byte) 0xBF) {
+            start += 3;
+        }
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (start == end) {
+            return false;
+        }
+        byte first = buffer.get(start);
+        return first < '0' || first > '9';
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public void setLineNumber(long lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        // Ignore the carriage return of files saved with Windows line endings
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (start == end) {
+            reject("blank line", buffer, start, end);
+            return;
+        }
+
+        // Find the four pipes that separate the five fields
+        int dateEnd = indexOf(buffer, (byte) '|', start, end);
+        int timeEnd = dateEnd < 0 ? -1 : indexOf(buffer, (byte) '|', dateEnd + 1, end);
+        int descriptionEnd = timeEnd < 0 ? -1 : indexOf(buffer, (byte) '|', timeEnd + 1, end);
+        int vendorEnd = descriptionEnd < 0 ? -1 : indexOf(buffer, (byte) '|', descriptionEnd + 1, end);
+        if (vendorEnd < 0) {
+            reject("expected 5 fields", buffer, start, end);
+            return;
+        }
+        int amountEnd = indexOf(buffer, (byte) '|', vendorEnd + 1, end);
+        if (amountEnd < 0) {
+            amountEnd = end;
+        }
+
+        if (!parseDate(buffer, start, dateEnd)) {
+            reject(failure, buffer, start, end);
+            return;
+        }
+        int epochDay = parsedValue;
+        if (!parseTime(buffer, dateEnd + 1, timeEnd)) {
+            reject(failure, buffer, start, end);
+            return;
+        }
+        int secondOfDay = parsedValue;
+        parsedCents = Money.parseCents(buffer, vendorEnd + 1, amountEnd);
+        if (parsedCents == Money.INVALID) {
+            reject("invalid amount", buffer, start, end);
+            return;
+        }
+
+        String description = decode(buffer, timeEnd + 1, descriptionEnd);
+        String vendor = decode(buffer, descriptionEnd + 1, vendorEnd);
+        rows++;
+        handler.row(epochDay, secondOfDay, parsedCents, description, vendor);
+    }
+
+    // Only bad lines get here, so decoding the line for the handler costs nothing on a clean file
+    private void reject(String reason, ByteBuffer buffer, int start, int end) {
+        if (!handler.malformed(lineNumber, reason, decode(buffer, start, end))) {
+            stopped = true;
+        }
+    }
+
+    // yyyy-MM-dd, stored in parsedValue as days since 1970-01-01
+    private boolean parseDate(ByteBuffer buffer, int start, int end) {
+        if (end - start != 10 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-') {
+            failure = "date is not yyyy-MM-dd";
+            return false;
+        }
+        int year = digits(buffer, start, 4);
+        int month = digits(buffer, start + 5, 2);
+        int day = digits(buffer, start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            failure = "invalid date";
+            return false;
+        }
+        parsedValue = (int) toEpochDay(year, month, day);
+        return true;
+    }
+
+    // HH:mm, HH:mm:ss or HH:mm:ss.SSS, stored in parsedValue as seconds since midnight
+    private boolean parseTime(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length < 5 || buffer.get(start + 2) != ':') {
+            failure = "time is not HH:mm:ss";
+            return false;
+        }
+        int hour = digits(buffer, start, 2);
+        int minute = digits(buffer, start + 3, 2);
+        int second = 0;
+        if (length > 5) {
+            if (length < 8 || buffer.get(start + 5) != ':') {
+                failure = "time is not HH:mm:ss";
+                return false;
+            }
+            second = digits(buffer, start + 6, 2);
+            // A fraction of a second is allowed but not kept
+            if (length > 8 && (buffer.get(start + 8) != '.' || length == 9 || digits(buffer, start + 9, length - 9) < 0)) {
+                failure = "time is not HH:mm:ss";
+                return false;
+            }
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            failure = "invalid time";
+            return false;
+        }
+        parsedValue = hour * 3600 + minute * 60 + second;
+        return true;
+    }
+
+    // Returns the value of count ASCII digits, or -1 if any of them isn't a digit
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String decode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Same arithmetic as LocalDate.toEpochDay for years 0 to 9999
+    static long toEpochDay(int year, int month, int day) {
+        long total = 365L * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367L * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+}
@@ -0,0 +1,202 @@
+package com.pluralsight;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Holds every transaction in primitive columns instead of one object per row.
+// Dates are days since 1970-01-01, times are seconds since midnight, amounts are cents,
+// and vendors and descriptions are ids into a dictionary of distinct Strings.
+// Rows are numbered in the order they were added and never move.
+public class TransactionStore implements Iterable<Transaction> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // How long each sort of the date index after a load takes
+    private static final LatencyRecorder SORT_LATENCY = Metrics.latency("store.sort");
+
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private int[] secondsOfDay = new int[INITIAL_CAPACITY];
+    private long[] amountCents = new long[INITIAL_CAPACITY];
+    private int[] vendorIds = new int[INITIAL_CAPACITY];
+    private int[] descriptionIds = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final StringDictionary vendors = new StringDictionary();
+    private final StringDictionary descriptions = new StringDictionary();
+
+    private final DateIndex dateIndex = new DateIndex();
+    private final VendorIndex vendorIndex = new VendorIndex();
+    private final TextIndex textIndex = new TextIndex();
+    private final Rollups rollups = new Rollups();
+    // While loading, the indexes are left alone and the new rows added to them in one go by endLoad
+    private boolean loading;
+    // First row of the current load; the rows before it are in the date index already
+    private int loadStart;
+
+    // Adds a row and returns its row number
+    public int add(int epochDay, int secondOfDay, long cents, String description, String vendor) {
+        return add(epochDay, secondOfDay, cents, descriptions.intern(description), vendors.intern(vendor));
+    }
+
+    // Adds a row whose description and vendor are already in this store's dictionaries
+    public int add(int epochDay, int secondOfDay, long cents, int descriptionId, int vendorId) {
+        if (size == epochDays.length) {
+            grow(size * 2);
+        }
+        int row = size;
+        epochDays[row] = epochDay;
+        secondsOfDay[row] = secondOfDay;
+        amountCents[row] = cents;
+        vendorIds[row] = vendorId;
+        descriptionIds[row] = descriptionId;
+        size++;
+        if (!loading) {
+            vendorIndex.add(row, vendorId, vendors.get(vendorId));
+            textIndex.add(row, descriptionId, descriptions.get(descriptionId), vendorId, vendors.get(vendorId));
+            rollups.add(epochDay, cents);
+            dateIndex.add(row, epochDay, secondOfDay);
+        }
+        return row;
+    }
+
+    public int add(Transaction transaction) {
+        return add((int) transaction.getDate().toEpochDay(), transaction.getTime().toSecondOfDay(),
+                transaction.getAmountCents(), transaction.getDescription(), transaction.getVendor());
+    }
+
+    // Call before adding a lot of rows at once, such as when the file is loaded. If the store
+    // already has rows, endLoad merges the new ones into the date index instead of sorting all of them.
+    public void beginLoad() {
+        loading = true;
+        loadStart = size;
+    }
+
+    public void endLoad() {
+        loading = false;
+        long started = Metrics.ENABLED ? System.nanoTime() : 0;
+        if (loadStart == 0) {
+            dateIndex.rebuild(this);
+        } else {
+            dateIndex.merge(this, loadStart);
+        }
+        if (Metrics.ENABLED) {
+            SORT_LATENCY.record(System.nanoTime() - started);
+        }
+        vendorIndex.addAll(this, loadStart);
+        textIndex.addAll(this, loadStart);
+        rollups.addAll(this, loadStart);
+    }
+
+    public DateIndex getDateIndex() {
+        return dateIndex;
+    }
+
+    public VendorIndex getVendorIndex() {
+        return vendorIndex;
+    }
+
+    public TextIndex getTextIndex() {
+        return textIndex;
+    }
+
+    public Rollups getRollups() {
+        return rollups;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Rough bytes taken by the columns, the dictionaries and the indexes. The vendor index is
+    // counted as one int per row, and the word index by its posting lists.
+    public long estimateBytes() {
+        return epochDays.length * 24L + vendors.estimateBytes() + descriptions.estimateBytes()
+                + dateIndex.estimateBytes() + size * 4L + textIndex.postingBytes();
+    }
+
+    public int getEpochDay(int row) {
+        return epochDays[row];
+    }
+
+    public int getSecondOfDay(int row) {
+        return secondsOfDay[row];
+    }
+
+    public long getAmountCents(int row) {
+        return amountCents[row];
+    }
+
+    public int getVendorId(int row) {
+        return vendorIds[row];
+    }
+
+    public int getDescriptionId(int row) {
+        return descriptionIds[row];
+    }
+
+    public String getVendor(int row) {
+        return vendors.get(vendorIds[row]);
+    }
+
+    public String getDescription(int row) {
+        return descriptions.get(descriptionIds[row]);
+    }
+
+    public StringDictionary getVendors() {
+        return vendors;
+    }
+
+    public StringDictionary getDescriptions() {
+        return descriptions;
+    }
+
+    // A copy of the row as a Transaction; changing it doesn't change the store
+    public Transaction get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return Transaction.ofCents(LocalDate.ofEpochDay(epochDays[row]), LocalTime.ofSecondOfDay(secondsOfDay[row]),
+                getDescription(row), getVendor(row), amountCents[row]);
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<Transaction>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public Transaction next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(row++);
+            }
+        };
+    }
+
+    // Makes room for count more rows, so a bulk load doesn't copy the columns over and over
+    public void ensureCapacity(int count) {
+        if (size + count > epochDays.length) {
+            grow(size + count);
+        }
+    }
+
+    private void grow(int capacity) {
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        secondsOfDay = Arrays.copyOf(secondsOfDay, capacity);
+        amountCents = Arrays.copyOf(amountCents, capacity);
+        vendorIds = Arrays.copyOf(vendorIds, capacity);
+        descriptionIds = Arrays.copyOf(descriptionIds, capacity);
+    }
+}
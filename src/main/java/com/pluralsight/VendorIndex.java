@@ -0,0 +1,127 @@
+package com.pluralsight;
+
+import java.util.Arrays;
+
+// Lists the rows of every vendor, so a vendor search doesn't have to scan the whole store.
+// Vendors are grouped under a lower-cased key, which makes lookups case-insensitive the same way
+// equalsIgnoreCase is. Each key has a posting list of its row numbers in the order they were added.
+public class VendorIndex {
+
+    private final StringDictionary keys = new StringDictionary();
+    private IntList[] postings = new IntList[64];
+
+    // The key id of every vendor id in the store's dictionary, or -1 if not seen yet
+    private int[] keyOfVendor = new int[64];
+
+    public VendorIndex() {
+        Arrays.fill(keyOfVendor, -1);
+    }
+
+    public void add(int row, int vendorId, String vendor) {
+        int key = keyOf(vendorId, vendor);
+        postings[key].add(row);
+    }
+
+    // Adds every row of the store from firstRow on, such as after a load. The rows of each key
+    // are counted first, so every posting list grows once instead of doubling its way up.
+    public void addAll(TransactionStore store, int firstRow) {
+        StringDictionary vendors = store.getVendors();
+        int[] counts = new int[Math.max(keys.size(), 64)];
+        for (int row = firstRow; row < store.size(); row++) {
+            int vendorId = store.getVendorId(row);
+            int key = vendorId < keyOfVendor.length ? keyOfVendor[vendorId] : -1;
+            if (key < 0) {
+                key = keyOf(vendorId, vendors.get(vendorId));
+            }
+            if (key >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, key + 1));
+            }
+            counts[key]++;
+        }
+        for (int key = 0; key < keys.size(); key++) {
+            if (counts[key] > 0) {
+                postings[key].ensureCapacity(postings[key].size() + counts[key]);
+            }
+        }
+        for (int row = firstRow; row < store.size(); row++) {
+            postings[keyOfVendor[store.getVendorId(row)]].add(row);
+        }
+    }
+
+    // The key of a vendor id, worked out the first time the id is seen
+    private int keyOf(int vendorId, String vendor) {
+        if (vendorId >= keyOfVendor.length) {
+            int oldLength = keyOfVendor.length;
+            keyOfVendor = Arrays.copyOf(keyOfVendor, Math.max(oldLength * 2, vendorId + 1));
+            Arrays.fill(keyOfVendor, oldLength, keyOfVendor.length, -1);
+        }
+        int key = keyOfVendor[vendorId];
+        if (key < 0) {
+            // First row for this spelling of the vendor, work out its key once
+            key = keys.intern(fold(vendor));
+            keyOfVendor[vendorId] = key;
+            if (key >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(postings.length * 2, key + 1));
+            }
+            if (postings[key] == null) {
+                postings[key] = new IntList();
+            }
+        }
+        return key;
+    }
+
+    // Rows whose vendor matches ignoring case, in the order they were added.
+    // This is the index's own list, so it must not be changed.
+    public IntList rowsFor(String vendor) {
+        int key = keys.find(fold(vendor));
+        return key < 0 ? new IntList() : postings[key];
+    }
+
+    // Rows whose vendor starts with prefix, ignoring case
+    public IntList rowsWithPrefix(String prefix) {
+        String folded = fold(prefix);
+        IntList found = new IntList();
+        for (int key = 0; key < keys.size(); key++) {
+            if (keys.get(key).startsWith(folded)) {
+                found.addAll(postings[key]);
+            }
+        }
+        found.sort();
+        return found;
+    }
+
+    // Rows whose vendor contains text anywhere, ignoring case
+    public IntList rowsContaining(String text) {
+        String folded = fold(text);
+        IntList found = new IntList();
+        for (int key = 0; key < keys.size(); key++) {
+            if (keys.get(key).contains(folded)) {
+                found.addAll(postings[key]);
+            }
+        }
+        found.sort();
+        return found;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    // Folds one char at a time the way equalsIgnoreCase compares them, upper case first, so letters
+    // like the dotless i or the Greek final sigma match the same vendors they always did. Whole
+    // String case mapping would turn "ß" into "SS" and match vendors equalsIgnoreCase doesn't.
+    static String fold(String vendor) {
+        char[] chars = null;
+        for (int i = 0; i < vendor.length(); i++) {
+            char c = vendor.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null) {
+                    chars = vendor.toCharArray();
+                }
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? vendor : new String(chars);
+    }
+}
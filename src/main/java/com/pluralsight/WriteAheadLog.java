@@ -0,0 +1,502 @@
+package com.pluralsight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+// Every line appended to the CSV is first written here, so a crash in the middle of a CSV write
+// can be repaired on the next start, and the ledger can be rebuilt from the binary snapshot plus
+// this log instead of parsing the whole CSV again.
+//
+// Layout (all numbers big-endian):
+//   int magic, int version, long base: the CSV size the first record starts at
+//   then one record per line: int payload length, int CRC32C of the payload,
+//   payload = the CSV line in UTF-8 without its newline
+//
+// Opening the log reads records up to the first one that is cut short or fails its checksum,
+// and drops everything from there on. Once the log passes compactBytes, a background thread
+// folds it into a new binary snapshot and starts the log again after the records it folded.
+// A compaction that fails is not tried again until the log has grown by compactBytes more.
+public class WriteAheadLog implements Closeable {
+
+    private static final int MAGIC = 0x46544C57;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Longer than any real line, so a garbage length is caught before it is read
+    private static final int MAX_PAYLOAD = 1 << 20;
+
+    private final Path path;
+    private final Path csv;
+    private final Path snapshot;
+    private final long compactBytes;
+    private final ExecutorService compactor;
+
+    // Everything below is only used while holding this log's lock
+    private FileChannel channel;
+    private long base;
+    private long size;
+    private long records;
+    // Bytes the logged lines take in the CSV, newlines included
+    private long lineBytes;
+    private boolean compacting;
+    // Bytes of records in the log when a compaction last failed; the next one waits for
+    // compactBytes more on top of them
+    private long failedBytes;
+    // The lines found when the log was opened, used by repairCsv and replay on start-up
+    private List<byte[]> recovered = new ArrayList<>();
+    private long droppedBytes;
+    private long compactions;
+
+    private WriteAheadLog(Path path, Path csv, Path snapshot, long compactBytes) {
+        this.path = path;
+        this.csv = csv;
+        this.snapshot = snapshot;
+        this.compactBytes = compactBytes;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-compact");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Opens the log of csv, reading every valid record in it. snapshot is the binary ledger
+    // the log is folded into. A missing or unreadable log is started again, empty.
+    public static WriteAheadLog open(Path path, Path csv, Path snapshot, long compactBytes) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(path, csv, snapshot, compactBytes);
+        log.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (!log.readHeader()) {
+            log.droppedBytes = log.channel.size();
+            log.start(Files.exists(csv) ? Files.size(csv) : 0);
+            return log;
+        }
+        log.recover();
+        return log;
+    }
+
+    // A record for one line (without its newline), ready to be written with append
+    public static byte[] encode(byte[] line, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(line, 0, length);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length).putInt((int) crc.getValue()).put(line, 0, length);
+        return record.array();
+    }
+
+    // The records of all the lines in lines, which holds length bytes of lines each ending in a
+    // newline, one after the other as encode would make them
+    public static byte[] encodeLines(byte[] lines, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (lines[i] == '\n') {
+                count++;
+            }
+        }
+        ByteBuffer records = ByteBuffer.allocate(count * RECORD_HEADER_SIZE + length - count);
+        CRC32C crc = new CRC32C();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (lines[i] == '\n') {
+                crc.reset();
+                crc.update(lines, lineStart, i - lineStart);
+                records.putInt(i - lineStart).putInt((int) crc.getValue()).put(lines, lineStart, i - lineStart);
+                lineStart = i + 1;
+            }
+        }
+        return records.array();
+    }
+
+    // Writes records made by encode. lines is how many there are and csvBytes how many bytes
+    // their lines take in the CSV.
+    public synchronized void append(byte[] bytes, int length, int lines, long csvBytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        long position = size;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        size = position;
+        records += lines;
+        lineBytes += csvBytes;
+        if (size - HEADER_SIZE - failedBytes >= compactBytes && !compacting) {
+            compacting = true;
+            compactor.execute(this::compactQuietly);
+        }
+    }
+
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    // Fixes the CSV after a crash: a line cut off half way by the crash is removed, and every
+    // logged line missing from the CSV is appended again. Returns how many lines were appended.
+    public synchronized int repairCsv() throws IOException {
+        if (recovered.isEmpty() || !Files.exists(csv)) {
+            return 0;
+        }
+        try (FileChannel file = FileChannel.open(csv, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long csvSize = file.size();
+            if (csvSize < base || csvSize - base > Integer.MAX_VALUE) {
+                // Changed by something else since the log started, leave it alone
+                return 0;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (csvSize - base));
+            while (tail.hasRemaining() && file.read(tail, base + tail.position()) > 0) {
+                // keep reading
+            }
+
+            // Count the lines that did make it into the CSV
+            Map<String, Integer> written = new HashMap<>();
+            byte[] bytes = tail.array();
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    written.merge(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8), 1, Integer::sum);
+                    lineStart = i + 1;
+                }
+            }
+            List<byte[]> missing = new ArrayList<>();
+            for (byte[] line : recovered) {
+                String text = new String(line, StandardCharsets.UTF_8);
+                Integer count = written.get(text);
+                if (count == null) {
+                    missing.add(line);
+                } else if (count == 1) {
+                    written.remove(text);
+                } else {
+                    written.put(text, count - 1);
+                }
+            }
+            if (missing.isEmpty()) {
+                return 0;
+            }
+
+            long end = csvSize;
+            if (lineStart < bytes.length && isPrefixOf(bytes, lineStart, missing.get(0))) {
+                // The last line was only partly written when the app stopped
+                end = base + lineStart;
+                file.truncate(end);
+            }
+            int missingBytes = 0;
+            for (byte[] line : missing) {
+                missingBytes += line.length + 1;
+            }
+            ByteBuffer lines = ByteBuffer.allocate(LedgerWriter.HEADER.length() + 2 + missingBytes);
+            if (end == 0) {
+                lines.put((LedgerWriter.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            } else if (end > base && bytes[(int) (end - base) - 1] != '\n') {
+                lines.put((byte) '\n');
+            }
+            for (byte[] line : missing) {
+                lines.put(line).put((byte) '\n');
+            }
+            lines.flip();
+            while (lines.hasRemaining()) {
+                end += file.write(lines, end);
+            }
+            file.force(false);
+            return missing.size();
+        }
+    }
+
+    // Index of the first logged record that is not in the snapshot, if the CSV holds exactly the
+    // snapshot plus the logged lines; -1 if it doesn't and the CSV has to be parsed instead.
+    // snapshotSource is the CSV size the snapshot was made from.
+    public synchronized int replayStart(long snapshotSource, long csvSize) {
+        if (snapshotSource < 0 || csvSize != base + lineBytes) {
+            return -1;
+        }
+        long offset = base;
+        for (int i = 0; i < recovered.size(); i++) {
+            if (offset == snapshotSource) {
+                return i;
+            }
+            offset += recovered.get(i).length + 1;
+        }
+        return offset == snapshotSource ? recovered.size() : -1;
+    }
+
+    // Hands every line logged from record first on to the handler, and returns how many rows it parsed
+    public synchronized long replay(int first, TransactionParser.RowHandler handler) {
+        TransactionParser parser = new TransactionParser(handler);
+        for (int i = first; i < recovered.size(); i++) {
+            byte[] line = recovered.get(i);
+            parser.parseLines(ByteBuffer.wrap(line), 0, line.length, true);
+        }
+        return parser.getRows();
+    }
+
+    // Empties the log once the snapshot holds everything in the CSV, which is csvSize bytes long
+    public synchronized void reset(long csvSize) throws IOException {
+        awaitCompaction();
+        start(csvSize);
+    }
+
+    // Waits until a compaction in progress has finished writing the snapshot
+    public synchronized void awaitCompaction() {
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    // Bytes thrown away when the log was opened because a record was cut short or damaged
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    // Waits for a compaction in progress, then closes the file
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return false;
+        }
+        base = header.getLong(8);
+        return true;
+    }
+
+    // Reads records until the first bad one and cuts the log off there
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        long position = HEADER_SIZE;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        CRC32C crc = new CRC32C();
+        while (position + RECORD_HEADER_SIZE <= fileSize) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            int length = recordHeader.getInt(0);
+            if (length < 0 || length > MAX_PAYLOAD || position + RECORD_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != recordHeader.getInt(4)) {
+                break;
+            }
+            recovered.add(payload.array());
+            records++;
+            lineBytes += length + 1;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        droppedBytes = fileSize - position;
+        if (droppedBytes > 0) {
+            channel.truncate(position);
+            channel.force(false);
+        }
+        size = position;
+    }
+
+    private void start(long newBase) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(newBase).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+        base = newBase;
+        size = HEADER_SIZE;
+        records = 0;
+        lineBytes = 0;
+        recovered = new ArrayList<>();
+        failedBytes = 0;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            System.out.println("Error: Could not compact " + path.getFileName() + "!");
+            synchronized (this) {
+                failedBytes = size - HEADER_SIZE;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // Loads the snapshot, adds the records logged so far, writes it back as the new snapshot, and
+    // then starts a new log holding only the records added while that was going on. A crash
+    // part way leaves the old log, which still lines up with the new snapshot through replayStart.
+    //
+    // The snapshot may already hold some of the records, if it was saved after the log started,
+    // and then only the rest are added. If it doesn't line up with the log at all, because it is
+    // older than the log or missing, a fresh one is made from the CSV up to where the log starts,
+    // which stays the same while the log is written.
+    private void compact() throws IOException {
+        long cutSize;
+        long cutLineBytes;
+        long cutRecords;
+        long oldBase;
+        synchronized (this) {
+            cutSize = size;
+            cutLineBytes = lineBytes;
+            cutRecords = records;
+            oldBase = base;
+        }
+        TransactionStore store = new TransactionStore();
+        TransactionParser.RowHandler handler = new TransactionParser.RowHandler() {
+            @Override
+            public void row(int epochDay, int secondOfDay, long amountCents, String description, String vendor) {
+                store.add(epochDay, secondOfDay, amountCents, description, vendor);
+            }
+
+            @Override
+            public boolean malformed(long lineNumber, String reason) {
+                return true;
+            }
+        };
+        store.beginLoad();
+        long from = positionOf(BinaryLedger.sourceSizeOf(snapshot), oldBase, cutSize);
+        if (from >= 0) {
+            BinaryLedger.load(snapshot, store);
+        } else {
+            if (!Files.exists(csv) || Files.size(csv) < oldBase) {
+                throw new IOException(csv + " is shorter than where its log starts");
+            }
+            new TransactionParser(handler).parseFile(csv, true, oldBase);
+            from = HEADER_SIZE;
+        }
+        forEachLine(from, cutSize, new TransactionParser(handler));
+        store.endLoad();
+
+        long newBase = oldBase + cutLineBytes;
+        long modified = Files.size(csv) == newBase ? Files.getLastModifiedTime(csv).toMillis() : -1;
+        BinaryLedger.write(store, snapshot, newBase, modified);
+
+        synchronized (this) {
+            // Copy the records written since the cut into a new log that starts at the new base
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(newBase).flip();
+                out.write(header);
+                channel.transferTo(cutSize, size - cutSize, out);
+                out.force(false);
+            }
+            channel.close();
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = HEADER_SIZE + (size - cutSize);
+            base = newBase;
+            records -= cutRecords;
+            lineBytes -= cutLineBytes;
+            recovered = new ArrayList<>();
+            failedBytes = 0;
+            compactions++;
+        }
+    }
+
+    // Position in the log of the first record after csvOffset bytes of the CSV, or -1 if csvOffset
+    // isn't the start of one of the records before to. The log starts at csvBase bytes.
+    private long positionOf(long csvOffset, long csvBase, long to) throws IOException {
+        if (csvOffset < csvBase) {
+            return -1;
+        }
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long offset = csvBase;
+        long position = HEADER_SIZE;
+        while (offset < csvOffset && position < to) {
+            recordHeader.clear();
+            synchronized (this) {
+                readFully(recordHeader, position);
+            }
+            int length = recordHeader.getInt(0);
+            offset += length + 1;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return offset == csvOffset ? position : -1;
+    }
+
+    // Parses the lines of the records in [from, to) of the log
+    private void forEachLine(long from, long to, TransactionParser parser) throws IOException {
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = from;
+        while (position < to) {
+            recordHeader.clear();
+            synchronized (this) {
+                readFully(recordHeader, position);
+            }
+            int length = recordHeader.getInt(0);
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            synchronized (this) {
+                readFully(payload, position + RECORD_HEADER_SIZE);
+            }
+            parser.parseLines(payload, 0, length, true);
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(path + " is cut short");
+            }
+        }
+    }
+
+    private static boolean isPrefixOf(byte[] bytes, int start, byte[] line) {
+        int length = bytes.length - start;
+        if (length > line.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != line[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}